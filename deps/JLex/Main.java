@@ -5,6 +5,12 @@
   See below for copyright notice, license, and disclaimer.
   New releases from http://www.cs.princeton.edu/~appel/modern/java/JLex/
 
+  Local changes
+   Generated scanners implement java.io.Closeable, ahead of any
+     %implements interfaces, and so have a public close() method.  A
+     spec that already declares a close() of its own must drop it or
+     move its code into a %close{ %close} block.
+
   Version 1.2.6, 2/7/03, [C. Scott Ananian]
    Renamed 'assert' function 'ASSERT' to accomodate Java 1.4's new keyword.
    Fixed a bug which certain forms of comment in the JLex directives section
@@ -291,6 +297,12 @@ class CSpec
   boolean m_unix;
   boolean m_public;
   boolean m_ignorecase;
+  boolean m_byte_mode;
+  boolean m_direct;
+  boolean m_flat;
+  boolean m_comb;
+  boolean m_resource;
+  java.io.File m_out_dir;
 
   char m_init_code[];
   int m_init_read;
@@ -298,6 +310,12 @@ class CSpec
   char m_init_throw_code[];
   int m_init_throw_read;
 
+  char m_reset_code[];
+  int m_reset_read;
+
+  char m_close_code[];
+  int m_close_read;
+
   char m_class_code[];
   int m_class_read;
 
@@ -373,6 +391,12 @@ class CSpec
         m_public = false;
 	m_yyeof = false;
 	m_ignorecase = false;
+	m_byte_mode = false;
+	m_direct = false;
+	m_flat = false;
+	m_comb = false;
+	m_resource = false;
+	m_out_dir = null;
 
 	/* Initialize variables for JLex runtime options. */
 	m_verbose = true;
@@ -397,6 +421,12 @@ class CSpec
 	m_init_throw_code = null;
 	m_init_throw_read = 0;
 
+	m_reset_code = null;
+	m_reset_read = 0;
+
+	m_close_code = null;
+	m_close_read = 0;
+
 	m_yylex_throw_code = null;
 	m_yylex_throw_read = 0;
 
@@ -428,6 +458,7 @@ class CEmit
     **************************************************************/
   private CSpec m_spec;
   private java.io.PrintWriter m_outstream;
+  private java.util.Vector m_tables; /* written by emit_table_resource */
 
   /***************************************************************
     Constants: Anchor Types
@@ -463,6 +494,7 @@ class CEmit
       {
 	m_spec = null;
 	m_outstream = null;
+	m_tables = new java.util.Vector();
       }
 
   /***************************************************************
@@ -643,22 +675,26 @@ class CEmit
 	  }
 	  
 	  /* Constants */
-	  m_outstream.println("\tprivate final int YY_BUFFER_SIZE = 512;");
+	  m_outstream.println("\tprivate static final int YY_BUFFER_SIZE = 512;");
+	  m_outstream.println("\tprivate static final int YY_BUFFER_KEEP = 1 << 16;");
 
-	  m_outstream.println("\tprivate final int YY_F = -1;");
-	  m_outstream.println("\tprivate final int YY_NO_STATE = -1;");
+	  m_outstream.println("\tprivate static final int YY_F = -1;");
+	  m_outstream.println("\tprivate static final int YY_NO_STATE = -1;");
 
-	  m_outstream.println("\tprivate final int YY_NOT_ACCEPT = 0;");
-	  m_outstream.println("\tprivate final int YY_START = 1;");
-	  m_outstream.println("\tprivate final int YY_END = 2;");
-	  m_outstream.println("\tprivate final int YY_NO_ANCHOR = 4;");
+	  m_outstream.println("\tprivate static final int YY_NOT_ACCEPT = 0;");
+	  m_outstream.println("\tprivate static final int YY_START = 1;");
+	  m_outstream.println("\tprivate static final int YY_END = 2;");
+	  m_outstream.println("\tprivate static final int YY_NO_ANCHOR = 4;");
+	  m_outstream.println("\tprivate static final int YY_NL = 8;");
+	  m_outstream.println("\tprivate static final int YY_MAP_SIZE = 1 << 30;");
+	  m_outstream.println("\tprivate static final int YY_PRESIZE_MAX = 1 << 24;");
 
 	  // internal
-	  m_outstream.println("\tprivate final int YY_BOL = "+m_spec.BOL+";");
-	  m_outstream.println("\tprivate final int YY_EOF = "+m_spec.EOF+";");
+	  m_outstream.println("\tprivate static final int YY_BOL = "+m_spec.BOL+";");
+	  m_outstream.println("\tprivate static final int YY_EOF = "+m_spec.EOF+";");
 	  // external
 	  if (m_spec.m_integer_type || true == m_spec.m_yyeof)
-	    m_outstream.println("\tpublic final int YYEOF = -1;");
+	    m_outstream.println("\tpublic static final int YYEOF = -1;");
 	  
           /* User specified class code. */
 	  if (null != m_spec.m_class_code)
@@ -668,12 +704,34 @@ class CEmit
 	    }
 
 	  /* Member Variables */
-	  m_outstream.println("\tprivate java.io.BufferedReader yy_reader;");
+	  if (m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\tprivate java.io.InputStream yy_instream;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\tprivate java.io.Reader yy_reader;");
+	    }
 	  m_outstream.println("\tprivate int yy_buffer_index;");
 	  m_outstream.println("\tprivate int yy_buffer_read;");
 	  m_outstream.println("\tprivate int yy_buffer_start;");
 	  m_outstream.println("\tprivate int yy_buffer_end;");
-	  m_outstream.println("\tprivate char yy_buffer[];");
+	  m_outstream.println("\tprivate " + yy_buffer_type() + " yy_buffer[];");
+	  m_outstream.println("\tprivate java.nio.channels.FileChannel yy_channel;");
+	  m_outstream.println("\tprivate boolean yy_channel_owned;");
+	  m_outstream.println("\tprivate long yy_channel_end;");
+	  m_outstream.println("\tprivate long yy_bytes_pos;");
+	  m_outstream.println("\tprivate java.nio.ByteBuffer yy_bytes;");
+	  m_outstream.println("\tprivate int yy_pending_low;");
+	  if (m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\tprivate int yy_start_low;");
+	      m_outstream.println("\tprivate int yy_end_low;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\tprivate java.nio.charset.CharsetDecoder yy_decoder;");
+	    }
 	  if (m_spec.m_count_chars)
 	    {
 	      m_outstream.println("\tprivate int yychar;");
@@ -692,6 +750,8 @@ class CEmit
 
 	  
 	  /* Function: first constructor (Reader) */
+	  if (false == m_spec.m_byte_mode)
+	    {
 	  m_outstream.print("\t");
 	  if (true == m_spec.m_public) {
 	    m_outstream.print("public ");
@@ -721,6 +781,7 @@ class CEmit
 	  m_outstream.println("\t\tyy_reader = new java.io.BufferedReader(reader);");
 	  m_outstream.println("\t}");
 	  m_outstream.println();
+	    }
 
 
 	  /* Function: second constructor (InputStream) */
@@ -749,16 +810,166 @@ class CEmit
 	  m_outstream.println("\t\t\tthrow (new Error(\"Error: Bad input "
 				 + "stream initializer.\"));");
 	  m_outstream.println("\t\t}");
-	  m_outstream.println("\t\tyy_reader = new java.io.BufferedReader(new java.io.InputStreamReader(instream));");
+	  if (m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\t\tyy_instream = instream;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\tyy_reader = new java.io.BufferedReader(new java.io.InputStreamReader(instream));");
+	    }
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+
+	  /* Function: CharSequence constructor.  The whole input is
+	     copied into yy_buffer once; there is nothing left to read. */
+	  emit_construct_head("java.lang.CharSequence input", false);
+	  if (m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\t\tthis (input.toString().getBytes("
+				  + "java.nio.charset.StandardCharsets.UTF_8));");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\tthis ();");
+	      m_outstream.println("\t\tif (null == input) {");
+	      m_outstream.println("\t\t\tthrow (new Error(\"Error: Bad input "
+				     + "stream initializer.\"));");
+	      m_outstream.println("\t\t}");
+	      m_outstream.println("\t\tyy_buffer = new char[input.length() + 1];");
+	      m_outstream.println("\t\tyy_copy_input(input);");
+	    }
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  /* Function: third constructor (Path) */
+	  emit_construct_head("java.nio.file.Path path", true);
+	  m_outstream.println("\t\tthis (java.nio.channels.FileChannel.open(path,");
+	  m_outstream.println("\t\t\tjava.nio.file.StandardOpenOption.READ), true);");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  /* Function: fourth constructor (FileChannel) */
+	  emit_construct_head("java.nio.channels.FileChannel channel", true);
+	  m_outstream.println("\t\tthis (channel, false);");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  /* Function: FileChannel region constructor - scans only bytes
+	     [start, end) of the channel, using positional mapping so that
+	     several scanners can share one channel. */
+	  emit_construct_head("java.nio.channels.FileChannel channel,"
+			      + " long start, long end", true);
+	  m_outstream.println("\t\tthis (channel, false, start, end);");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  if (m_spec.m_byte_mode)
+	    {
+	      /* Function: byte array and ByteBuffer constructors.  The
+		 bytes are scanned as UTF-8 without being decoded first. */
+	      emit_construct_head("byte input[]", false);
+	      m_outstream.println("\t\tthis (java.nio.ByteBuffer.wrap(input));");
+	      m_outstream.println("\t}");
+	      m_outstream.println();
+
+	      emit_construct_head("java.nio.ByteBuffer input", false);
+	      m_outstream.println("\t\tthis ();");
+	      m_outstream.println("\t\tif (null == input) {");
+	      m_outstream.println("\t\t\tthrow (new Error(\"Error: Bad input "
+				     + "stream initializer.\"));");
+	      m_outstream.println("\t\t}");
+	      m_outstream.println("\t\tyy_presize(input.remaining());");
+	      m_outstream.println("\t\tyy_bytes = input.duplicate();");
+	      m_outstream.println("\t}");
+	      m_outstream.println();
+	    }
+
+	  /* Function: fifth, private constructor - scans the channel from
+	     its current position to its end. */
+	  m_outstream.print("\tprivate ");
+	  m_outstream.print(new String(m_spec.m_class_name));
+	  m_outstream.print(" (java.nio.channels.FileChannel channel,"
+			    + " boolean owned)");
+	  emit_construct_throws(true);
+	  m_outstream.println("\t\tthis (channel, owned, channel.position(), channel.size());");
 	  m_outstream.println("\t}");
 	  m_outstream.println();
 
+	  /* Function: sixth, private constructor - maps the channel in
+	     windows of YY_MAP_SIZE bytes and feeds it straight into
+	     yy_buffer, without a Reader in between.  In character mode
+	     the bytes are decoded as UTF-8 on the way.  A channel the
+	     scanner opened itself is closed again if this fails, since
+	     the caller never gets to close the scanner. */
+	  m_outstream.print("\tprivate ");
+	  m_outstream.print(new String(m_spec.m_class_name));
+	  m_outstream.print(" (java.nio.channels.FileChannel channel,"
+			    + " boolean owned, long start, long end)");
+	  emit_construct_throws(true);
+	  m_outstream.println("\t\tthis ();");
+	  m_outstream.println("\t\tif (null == channel || start > end) {");
+	  m_outstream.println("\t\t\tthrow (new Error(\"Error: Bad input "
+				 + "stream initializer.\"));");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t\tyy_channel = channel;");
+	  m_outstream.println("\t\tyy_channel_owned = owned;");
+	  m_outstream.println("\t\tyy_channel_end = end;");
+	  m_outstream.println("\t\tyy_bytes_pos = start;");
+	  m_outstream.println("\t\tyy_bytes = java.nio.ByteBuffer.allocate(0);");
+	  if (false == m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\t\tyy_decoder = java.nio.charset.StandardCharsets.UTF_8.newDecoder()");
+	      m_outstream.println("\t\t\t.onMalformedInput(java.nio.charset.CodingErrorAction.REPLACE)");
+	      m_outstream.println("\t\t\t.onUnmappableCharacter(java.nio.charset.CodingErrorAction.REPLACE);");
+	    }
+	  m_outstream.println("\t\ttry {");
+	  m_outstream.println("\t\t\tyy_presize(yy_channel_end - yy_bytes_pos);");
+	  m_outstream.println("\t\t\tyy_map_next();");
+	  m_outstream.println("\t\t} catch (java.lang.Throwable e) {");
+	  m_outstream.println("\t\t\tif (owned) {");
+	  m_outstream.println("\t\t\t\ttry {");
+	  m_outstream.println("\t\t\t\t\tchannel.close();");
+	  m_outstream.println("\t\t\t\t} catch (java.io.IOException x) {");
+	  m_outstream.println("\t\t\t\t\te.addSuppressed(x);");
+	  m_outstream.println("\t\t\t\t}");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t\tthrow e;");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
 
-	  /* Function: third, private constructor - only for internal use */
+	  /* Function: seventh, private constructor - only for internal use */
 	  m_outstream.print("\tprivate ");
           m_outstream.print(new String(m_spec.m_class_name));
 	  m_outstream.print(" ()");
-	  
+	  emit_init_throws();
+	  m_outstream.println("\t\tyy_buffer = new " + yy_buffer_type() + "[YY_BUFFER_SIZE];");
+	  m_outstream.println("\t\tyy_reset();");
+
+	  /* User specified constructor code. */
+	  if (null != m_spec.m_init_code)
+	    {
+	      m_outstream.print(new String(m_spec.m_init_code,0,
+						m_spec.m_init_read));
+	    }
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  emit_reset();
+	}
+
+  /***************************************************************
+    Function: emit_init_throws
+    Description: Emits the throws clause, if %initthrow gave one,
+    and opening brace of a method that runs the user's init code.
+    **************************************************************/
+  private void emit_init_throws
+    (
+     )
+      throws java.io.IOException
+	{
 	  if (null != m_spec.m_init_throw_code)
 	    {
 	      m_outstream.println(); 
@@ -771,8 +982,25 @@ class CEmit
 	    {
 	      m_outstream.println(" {");
 	    }
-	  
-	  m_outstream.println("\t\tyy_buffer = new char[YY_BUFFER_SIZE];");
+	}
+
+  /***************************************************************
+    Function: emit_reset
+    Description: Emits yy_reset, which puts the scanner in the
+    state a new one starts in, and the public reset methods that
+    point an existing scanner at new input and then run the user's
+    %reset code.  %init code stays constructor-only, as in JLex.
+    reset keeps the scanner's buffer, unless an earlier input grew
+    it past YY_BUFFER_KEEP, and never rebuilds the tables, so a
+    scanner can be reused for many small inputs.
+    **************************************************************/
+  private void emit_reset
+    (
+     )
+      throws java.io.IOException
+	{
+	  m_outstream.print("\tprivate void yy_reset ()");
+	  emit_init_throws();
 	  m_outstream.println("\t\tyy_buffer_read = 0;");
 	  m_outstream.println("\t\tyy_buffer_index = 0;");
 	  m_outstream.println("\t\tyy_buffer_start = 0;");
@@ -784,24 +1012,257 @@ class CEmit
 	  if (m_spec.m_count_lines)
 	    {
 	      m_outstream.println("\t\tyyline = 0;");
+	      m_outstream.println("\t\tyy_lexeme_nl = true;");
 	    }
+	  m_outstream.println("\t\tyy_last_was_cr = false;");
 	  m_outstream.println("\t\tyy_at_bol = true;");
 	  m_outstream.println("\t\tyy_lexical_state = YYINITIAL;");
-	  /*if (m_spec.m_count_lines || true == m_spec.m_count_chars)
+	  m_outstream.println("\t\tyy_eof_done = false;");
+	  if (m_spec.m_byte_mode)
 	    {
-	      m_outstream.println("\t\tyy_buffer_prev_start = 0;");
-	    }*/
+	      m_outstream.println("\t\tyy_instream = null;");
+	      m_outstream.println("\t\tyy_start_low = 0;");
+	      m_outstream.println("\t\tyy_end_low = 0;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\tyy_reader = null;");
+	    }
+	  m_outstream.println("\t\tyy_pending_low = 0;");
+	  m_outstream.println("\t\tyy_channel = null;");
+	  m_outstream.println("\t\tyy_channel_owned = false;");
+	  m_outstream.println("\t\tyy_bytes = null;");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
 
-	  /* User specified constructor code. */
-	  if (null != m_spec.m_init_code)
+	  /* Function: yy_reclaim - gets yy_buffer ready for a new input
+	     of at least length units, keeping it unless it is too
+	     small, or larger than both the input and YY_BUFFER_KEEP, so
+	     that one big input does not pin its buffer in a pooled
+	     scanner. */
+	  m_outstream.println("\tprivate void yy_reclaim (int length)");
+	  m_outstream.println("\t\tthrows java.io.IOException {");
+	  m_outstream.println("\t\tif (null != yy_channel && yy_channel_owned) {");
+	  m_outstream.println("\t\t\tyy_channel.close();");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t\tint size = java.lang.Math.max(length, YY_BUFFER_SIZE);");
+	  m_outstream.println("\t\tif (yy_buffer.length < length");
+	  m_outstream.println("\t\t    || yy_buffer.length > java.lang.Math.max(size, YY_BUFFER_KEEP)) {");
+	  m_outstream.println("\t\t\tyy_buffer = new " + yy_buffer_type() + "[size];");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  /* Function: close - closes the channel the scanner opened
+	     itself, for the Path constructor, which is otherwise only
+	     closed once the scan reaches its end.  Readers, streams and
+	     channels that were passed in are left to their owner.  The
+	     scanner then sees end of input after what it has buffered.
+	     The user's %close code runs first, e.g. to write out what
+	     a scan that stopped early still holds. */
+	  m_outstream.println("\tpublic void close ()");
+	  m_outstream.println("\t\tthrows java.io.IOException {");
+	  if (null != m_spec.m_close_code)
 	    {
-	      m_outstream.print(new String(m_spec.m_init_code,0,
-						m_spec.m_init_read));
+	      m_outstream.print(new String(m_spec.m_close_code,0,
+						m_spec.m_close_read));
+	    }
+	  m_outstream.println("\t\tjava.nio.channels.FileChannel channel = yy_channel;");
+	  m_outstream.println("\t\tboolean owned = yy_channel_owned;");
+	  if (m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\t\tyy_instream = null;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\tyy_reader = null;");
+	    }
+	  m_outstream.println("\t\tyy_channel = null;");
+	  m_outstream.println("\t\tyy_channel_owned = false;");
+	  m_outstream.println("\t\tyy_bytes = null;");
+	  m_outstream.println("\t\tyy_pending_low = 0;");
+	  m_outstream.println("\t\tif (null != channel && owned) {");
+	  m_outstream.println("\t\t\tchannel.close();");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  /* Function: reset (Reader or InputStream).  The input is read
+	     straight into yy_buffer, which batches reads already, so
+	     unlike the constructor no BufferedReader is put in between. */
+	  if (m_spec.m_byte_mode)
+	    {
+	      emit_reset_head("java.io.InputStream instream");
+	      m_outstream.println("\t\tif (null == instream) {");
+	    }
+	  else
+	    {
+	      emit_reset_head("java.io.Reader reader");
+	      m_outstream.println("\t\tif (null == reader) {");
+	    }
+	  m_outstream.println("\t\t\tthrow (new Error(\"Error: Bad input "
+				 + "stream initializer.\"));");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t\tyy_reclaim(0);");
+	  m_outstream.println("\t\tyy_reset();");
+	  if (m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\t\tyy_instream = instream;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\tyy_reader = reader;");
 	    }
+	  emit_reset_code();
+	  m_outstream.println("\t}");
+	  m_outstream.println();
 
+	  /* Function: reset (CharSequence) */
+	  emit_reset_head("java.lang.CharSequence input");
+	  m_outstream.println("\t\tif (null == input) {");
+	  m_outstream.println("\t\t\tthrow (new Error(\"Error: Bad input "
+				 + "stream initializer.\"));");
+	  m_outstream.println("\t\t}");
+	  if (m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\t\tbyte bytes[] = input.toString().getBytes("
+				  + "java.nio.charset.StandardCharsets.UTF_8);");
+	      m_outstream.println("\t\tyy_reclaim(bytes.length + 1);");
+	      m_outstream.println("\t\tyy_reset();");
+	      m_outstream.println("\t\tyy_bytes = java.nio.ByteBuffer.wrap(bytes);");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\tyy_reclaim(input.length() + 1);");
+	      m_outstream.println("\t\tyy_reset();");
+	      m_outstream.println("\t\tyy_copy_input(input);");
+	    }
+	  emit_reset_code();
 	  m_outstream.println("\t}");
 	  m_outstream.println();
 
+	  /* Function: yy_copy_input - copies input into yy_buffer, which
+	     has room for it, for the CharSequence constructor and reset.
+	     A String is copied in bulk; anything else char by char, so
+	     no intermediate String is built. */
+	  if (false == m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\tprivate void yy_copy_input (java.lang.CharSequence input) {");
+	      m_outstream.println("\t\tyy_buffer_read = input.length();");
+	      m_outstream.println("\t\tif (input instanceof java.lang.String) {");
+	      m_outstream.println("\t\t\t((java.lang.String) input).getChars(0, yy_buffer_read, yy_buffer, 0);");
+	      m_outstream.println("\t\t} else {");
+	      m_outstream.println("\t\t\tfor (int i = 0; i < yy_buffer_read; ++i) {");
+	      m_outstream.println("\t\t\t\tyy_buffer[i] = input.charAt(i);");
+	      m_outstream.println("\t\t\t}");
+	      m_outstream.println("\t\t}");
+	      m_outstream.println("\t}");
+	      m_outstream.println();
+	    }
+	}
+
+  /***************************************************************
+    Function: emit_reset_code
+    Description: Emits the user's %reset code, which a reset method
+    runs once the scanner is pointed at its new input.
+    **************************************************************/
+  private void emit_reset_code
+    (
+     )
+      throws java.io.IOException
+	{
+	  if (null != m_spec.m_reset_code)
+	    {
+	      m_outstream.print(new String(m_spec.m_reset_code,0,
+						m_spec.m_reset_read));
+	    }
+	}
+
+  /***************************************************************
+    Function: emit_reset_head
+    Description: Emits the signature of a public reset method
+    taking the given parameter list.
+    **************************************************************/
+  private void emit_reset_head
+    (
+     String params
+     )
+      throws java.io.IOException
+	{
+	  m_outstream.print("\t");
+	  if (true == m_spec.m_public) {
+	    m_outstream.print("public ");
+	  }
+	  m_outstream.print("void reset (" + params + ")");
+	  emit_construct_throws(true);
+	}
+
+  /***************************************************************
+    Function: yy_buffer_type
+    Description: Element type of the generated scanner's input
+    buffer: raw bytes under %byte, characters otherwise.
+    **************************************************************/
+  private String yy_buffer_type
+    (
+     )
+      {
+	return m_spec.m_byte_mode ? "byte" : "char";
+      }
+
+  /***************************************************************
+    Function: emit_construct_head
+    Description: Emits the signature of a public constructor
+    taking the given parameter list, declaring java.io.IOException
+    if io is set.
+    **************************************************************/
+  private void emit_construct_head
+    (
+     String params,
+     boolean io
+     )
+      throws java.io.IOException
+	{
+	  m_outstream.print("\t");
+	  if (true == m_spec.m_public) {
+	    m_outstream.print("public ");
+	  }
+	  m_outstream.print(new String(m_spec.m_class_name));
+	  m_outstream.print(" (" + params + ")");
+	  emit_construct_throws(io);
+	}
+
+  /***************************************************************
+    Function: emit_construct_throws
+    Description: Emits the throws clause and opening brace of a
+    constructor, merging in any %initthrow code.
+    **************************************************************/
+  private void emit_construct_throws
+    (
+     boolean io
+     )
+      throws java.io.IOException
+	{
+	  if (null != m_spec.m_init_throw_code)
+	    {
+	      m_outstream.println(); 
+	      m_outstream.print("\t\tthrows "); 
+	      if (io)
+		{
+		  m_outstream.print("java.io.IOException, ");
+		}
+	      m_outstream.println(new String(m_spec.m_init_throw_code,0,
+						m_spec.m_init_throw_read));
+	      m_outstream.println("\t\t{");
+	    }
+	  else if (io)
+	    {
+	      m_outstream.println();
+	      m_outstream.println("\t\tthrows java.io.IOException {");
+	    }
+	  else
+	    {
+	      m_outstream.println(" {");
+	    }
 	}
 
   /***************************************************************
@@ -829,7 +1290,7 @@ class CEmit
 		  CUtility.ASSERT(null != state);
 		}
 	      
-	      m_outstream.println("\tprivate final int " 
+	      m_outstream.println("\tprivate static final int " 
 				     + state 
 				     + " = " 
 				     + (m_spec.m_states.get(state)).toString() 
@@ -837,7 +1298,7 @@ class CEmit
 	      /*++index;*/
 	    }
 
-	  m_outstream.println("\tprivate final int yy_state_dtrans[] = {");
+	  m_outstream.println("\tprivate static final int yy_state_dtrans[] = {");
 	  for (index = 0; index < m_spec.m_state_dtrans.length; ++index)
 	    {
 	      m_outstream.print("\t\t" + m_spec.m_state_dtrans[index]);
@@ -908,59 +1369,128 @@ class CEmit
 	m_outstream.println("\t\treturn yy_state_dtrans[state];");
 	m_outstream.println("\t}");*/
 
-	/* Function: yy_advance */
-	m_outstream.println("\tprivate int yy_advance ()");
+	/* Function: yy_read */
+	m_outstream.println("\tprivate int yy_read (" + yy_buffer_type()
+			    + " buf[], int off, int len)");
+	m_outstream.println("\t\tthrows java.io.IOException {");
+	if (m_spec.m_byte_mode)
+	  {
+	    m_outstream.println("\t\tif (null != yy_instream) {");
+	    m_outstream.println("\t\t\treturn yy_instream.read(buf, off, len);");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\twhile (null != yy_bytes) {");
+	    m_outstream.println("\t\t\tif (yy_bytes.hasRemaining()) {");
+	    m_outstream.println("\t\t\t\tlen = java.lang.Math.min(len, yy_bytes.remaining());");
+	    m_outstream.println("\t\t\t\tyy_bytes.get(buf, off, len);");
+	    m_outstream.println("\t\t\t\treturn len;");
+	    m_outstream.println("\t\t\t}");
+	    m_outstream.println("\t\t\tif (null == yy_channel) {");
+	    m_outstream.println("\t\t\t\tyy_bytes = null;");
+	    m_outstream.println("\t\t\t} else {");
+	    m_outstream.println("\t\t\t\tyy_map_next();");
+	    m_outstream.println("\t\t\t}");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\treturn -1;");
+	    m_outstream.println("\t}");
+	  }
+	else
+	  {
+	m_outstream.println("\t\tif (null != yy_reader) {");
+	m_outstream.println("\t\t\treturn yy_reader.read(buf, off, len);");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (0 != yy_pending_low) {");
+	m_outstream.println("\t\t\tbuf[off] = (char) yy_pending_low;");
+	m_outstream.println("\t\t\tyy_pending_low = 0;");
+	m_outstream.println("\t\t\treturn 1;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (null == yy_bytes) {");
+	m_outstream.println("\t\t\treturn -1;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tjava.nio.CharBuffer out = java.nio.CharBuffer.wrap(buf, off, len);");
+	m_outstream.println("\t\twhile (true) {");
+	m_outstream.println("\t\t\tboolean last = (null == yy_channel);");
+	m_outstream.println("\t\t\tjava.nio.charset.CoderResult result =");
+	m_outstream.println("\t\t\t\tyy_decoder.decode(yy_bytes, out, last);");
+	m_outstream.println("\t\t\tif (out.position() > off) {");
+	m_outstream.println("\t\t\t\treturn out.position() - off;");
+	m_outstream.println("\t\t\t}");
+	/* Only a surrogate pair overflows an empty out: len is 1.  It
+	   is decoded on the side and its low half handed out by the
+	   next call. */
+	m_outstream.println("\t\t\tif (result.isOverflow()) {");
+	m_outstream.println("\t\t\t\tjava.nio.CharBuffer pair = java.nio.CharBuffer.allocate(2);");
+	m_outstream.println("\t\t\t\tyy_decoder.decode(yy_bytes, pair, last);");
+	m_outstream.println("\t\t\t\tbuf[off] = pair.get(0);");
+	m_outstream.println("\t\t\t\tyy_pending_low = pair.get(1);");
+	m_outstream.println("\t\t\t\treturn 1;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tif (last) {");
+	m_outstream.println("\t\t\t\tyy_bytes = null;");
+	m_outstream.println("\t\t\t\treturn -1;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tyy_map_next();");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t}");
+	  }
+
+	/* Function: yy_map_next */
+	m_outstream.println("\tprivate void yy_map_next ()");
+	m_outstream.println("\t\tthrows java.io.IOException {");
+	m_outstream.println("\t\tlong pos = yy_bytes_pos + yy_bytes.position();");
+	m_outstream.println("\t\tlong size = java.lang.Math.min(yy_channel_end - pos, YY_MAP_SIZE);");
+	m_outstream.println("\t\tyy_bytes = yy_channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY,");
+	m_outstream.println("\t\t\tpos, size);");
+	m_outstream.println("\t\tyy_bytes_pos = pos;");
+	m_outstream.println("\t\tif (pos + size >= yy_channel_end) {");
+	m_outstream.println("\t\t\tif (yy_channel_owned) {");
+	m_outstream.println("\t\t\t\tyy_channel.close();");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tyy_channel = null;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t}");
+
+	/* Function: yy_advance, or yy_advance_byte under %byte.  The
+	   latter hands back raw unsigned bytes and -1 at end of input;
+	   the %byte yy_advance below decodes UTF-8 on top of it. */
+	String eof = m_spec.m_byte_mode ? "-1" : "YY_EOF";
+	String next = m_spec.m_byte_mode
+	  ? "yy_buffer[yy_buffer_index++] & 0xFF"
+	  : "yy_buffer[yy_buffer_index++]";
+	m_outstream.println("\tprivate int " 
+			    + (m_spec.m_byte_mode ? "yy_advance_byte" : "yy_advance")
+			    + " ()");
 	m_outstream.println("\t\tthrows java.io.IOException {");
 	/*m_outstream.println("\t\t{");*/
 	m_outstream.println("\t\tint next_read;");
-	m_outstream.println("\t\tint i;");
-	m_outstream.println("\t\tint j;");
 	m_outstream.println();
 
 	m_outstream.println("\t\tif (yy_buffer_index < yy_buffer_read) {");
-	m_outstream.println("\t\t\treturn yy_buffer[yy_buffer_index++];");
+	m_outstream.println("\t\t\treturn " + next + ";");
 	/*m_outstream.println("\t\t\t++yy_buffer_index;");*/
 	m_outstream.println("\t\t}");
 	m_outstream.println();
 
-	m_outstream.println("\t\tif (0 != yy_buffer_start) {");
-	m_outstream.println("\t\t\ti = yy_buffer_start;");
-	m_outstream.println("\t\t\tj = 0;");
-	m_outstream.println("\t\t\twhile (i < yy_buffer_read) {");
-	m_outstream.println("\t\t\t\tyy_buffer[j] = yy_buffer[i];");
-	m_outstream.println("\t\t\t\t++i;");
-	m_outstream.println("\t\t\t\t++j;");
-	m_outstream.println("\t\t\t}");
-	m_outstream.println("\t\t\tyy_buffer_end = yy_buffer_end - yy_buffer_start;");
-	m_outstream.println("\t\t\tyy_buffer_start = 0;");
-	m_outstream.println("\t\t\tyy_buffer_read = j;");
-	m_outstream.println("\t\t\tyy_buffer_index = j;");
-	m_outstream.println("\t\t\tnext_read = yy_reader.read(yy_buffer,");
-	m_outstream.println("\t\t\t\t\tyy_buffer_read,");
-	m_outstream.println("\t\t\t\t\tyy_buffer.length - yy_buffer_read);");
-	m_outstream.println("\t\t\tif (-1 == next_read) {");
-	m_outstream.println("\t\t\t\treturn YY_EOF;");
-	m_outstream.println("\t\t\t}");
-	m_outstream.println("\t\t\tyy_buffer_read = yy_buffer_read + next_read;");
-	m_outstream.println("\t\t}");
-	m_outstream.println();
-
 	m_outstream.println("\t\twhile (yy_buffer_index >= yy_buffer_read) {");
-	m_outstream.println("\t\t\tif (yy_buffer_index >= yy_buffer.length) {");
-	m_outstream.println("\t\t\t\tyy_buffer = yy_double(yy_buffer);");
+	m_outstream.println("\t\t\tif (yy_buffer_read >= yy_buffer.length) {");
+	m_outstream.println("\t\t\t\tyy_slide();");
 	m_outstream.println("\t\t\t}");
-	m_outstream.println("\t\t\tnext_read = yy_reader.read(yy_buffer,");
+	m_outstream.println("\t\t\tnext_read = yy_read(yy_buffer,");
 	m_outstream.println("\t\t\t\t\tyy_buffer_read,");
 	m_outstream.println("\t\t\t\t\tyy_buffer.length - yy_buffer_read);");
 	m_outstream.println("\t\t\tif (-1 == next_read) {");
-	m_outstream.println("\t\t\t\treturn YY_EOF;");
+	m_outstream.println("\t\t\t\treturn " + eof + ";");
 	m_outstream.println("\t\t\t}");
 	m_outstream.println("\t\t\tyy_buffer_read = yy_buffer_read + next_read;");
 	m_outstream.println("\t\t}");
 
-	m_outstream.println("\t\treturn yy_buffer[yy_buffer_index++];");
+	m_outstream.println("\t\treturn " + next + ";");
 	m_outstream.println("\t}");
 	
+	if (m_spec.m_byte_mode)
+	  {
+	    emit_byte_advance();
+	  }
+	
 	/* Function: yy_move_end */
 	m_outstream.println("\tprivate void yy_move_end () {");
 	m_outstream.println("\t\tif (yy_buffer_end > yy_buffer_start &&");
@@ -973,21 +1503,32 @@ class CEmit
 
 	/* Function: yy_mark_start */
 	m_outstream.println("\tprivate boolean yy_last_was_cr=false;");
+	if (m_spec.m_count_lines)
+	  {
+	    /* Set from the YY_NL bit of the last accept state: false if
+	       the lexeme cannot hold a line terminator, so yy_mark_start
+	       need not look at it. */
+	    m_outstream.println("\tprivate boolean yy_lexeme_nl = true;");
+	  }
 	m_outstream.println("\tprivate void yy_mark_start () {");
 	if (m_spec.m_count_lines || true == m_spec.m_count_chars)
 	  {
 	    if (m_spec.m_count_lines)
 	      {
-		m_outstream.println("\t\tint i;");
-		m_outstream.println("\t\tfor (i = yy_buffer_start; " 
+		m_outstream.println("\t\tif (yy_lexeme_nl) {");
+		m_outstream.println("\t\t\tint i;");
+		m_outstream.println("\t\t\tfor (i = yy_buffer_start; " 
 				       + "i < yy_buffer_index; ++i) {");
-		m_outstream.println("\t\t\tif ('\\n' == yy_buffer[i] && !yy_last_was_cr) {");
-		m_outstream.println("\t\t\t\t++yyline;");
+		m_outstream.println("\t\t\t\tif ('\\n' == yy_buffer[i] && !yy_last_was_cr) {");
+		m_outstream.println("\t\t\t\t\t++yyline;");
+		m_outstream.println("\t\t\t\t}");
+		m_outstream.println("\t\t\t\tif ('\\r' == yy_buffer[i]) {");
+		m_outstream.println("\t\t\t\t\t++yyline;");
+		m_outstream.println("\t\t\t\t\tyy_last_was_cr=true;");
+		m_outstream.println("\t\t\t\t} else yy_last_was_cr=false;");
 		m_outstream.println("\t\t\t}");
-		m_outstream.println("\t\t\tif ('\\r' == yy_buffer[i]) {");
-		m_outstream.println("\t\t\t\t++yyline;");
-		m_outstream.println("\t\t\t\tyy_last_was_cr=true;");
-		m_outstream.println("\t\t\t} else yy_last_was_cr=false;");
+		m_outstream.println("\t\t} else if (yy_buffer_index > yy_buffer_start) {");
+		m_outstream.println("\t\t\tyy_last_was_cr=false;");
 		m_outstream.println("\t\t}");
 	      }
 	    if (m_spec.m_count_chars)
@@ -997,16 +1538,30 @@ class CEmit
 	      }
 	  }
 	m_outstream.println("\t\tyy_buffer_start = yy_buffer_index;");
+	if (m_spec.m_byte_mode)
+	  {
+	    m_outstream.println("\t\tyy_start_low = yy_pending_low;");
+	  }
 	m_outstream.println("\t}");
 
-	/* Function: yy_mark_end */
+	/* Function: yy_mark_end.  Under %byte a position between the
+	   two halves of a surrogate pair is the index of the pair's
+	   last byte plus the pending low half, so both are marked. */
 	m_outstream.println("\tprivate void yy_mark_end () {");
 	m_outstream.println("\t\tyy_buffer_end = yy_buffer_index;");
+	if (m_spec.m_byte_mode)
+	  {
+	    m_outstream.println("\t\tyy_end_low = yy_pending_low;");
+	  }
 	m_outstream.println("\t}");
 
 	/* Function: yy_to_mark */
 	m_outstream.println("\tprivate void yy_to_mark () {");
 	m_outstream.println("\t\tyy_buffer_index = yy_buffer_end;");
+	if (m_spec.m_byte_mode)
+	  {
+	    m_outstream.println("\t\tyy_pending_low = yy_end_low;");
+	  }
 	m_outstream.println("\t\tyy_at_bol = "+
 			    "(yy_buffer_end > yy_buffer_start) &&");
 	m_outstream.println("\t\t            "+
@@ -1021,31 +1576,118 @@ class CEmit
 
 	/* Function: yytext */
 	m_outstream.println("\tprivate java.lang.String yytext () {");
+	if (m_spec.m_byte_mode)
+	  {
+	    m_outstream.println("\t\tif (0 != yy_start_low || 0 != yy_end_low) {");
+	    m_outstream.println("\t\t\treturn yy_split_text();");
+	    m_outstream.println("\t\t}");
+	  }
 	m_outstream.println("\t\treturn (new java.lang.String(yy_buffer,");
 	m_outstream.println("\t\t\tyy_buffer_start,");
-	m_outstream.println("\t\t\tyy_buffer_end - yy_buffer_start));");
-	m_outstream.println("\t}");
-
+	if (m_spec.m_byte_mode)
+	  {
+	    m_outstream.println("\t\t\tyy_buffer_end - yy_buffer_start,");
+	    m_outstream.println("\t\t\tjava.nio.charset.StandardCharsets.UTF_8));");
+	  }
+	else
+	  {
+	    m_outstream.println("\t\t\tyy_buffer_end - yy_buffer_start));");
+	  }
+	m_outstream.println("\t}");
+	if (m_spec.m_byte_mode)
+	  {
+	    emit_split_text();
+	  }
+
 	/* Function: yylength */
 	m_outstream.println("\tprivate int yylength () {");
 	m_outstream.println("\t\treturn yy_buffer_end - yy_buffer_start;");
 	m_outstream.println("\t}");
 
-	/* Function: yy_double */
-	m_outstream.println("\tprivate char[] yy_double (char buf[]) {");
-	m_outstream.println("\t\tint i;");
-	m_outstream.println("\t\tchar newbuf[];");
-	m_outstream.println("\t\tnewbuf = new char[2*buf.length];");
-	m_outstream.println("\t\tfor (i = 0; i < buf.length; ++i) {");
-	m_outstream.println("\t\t\tnewbuf[i] = buf[i];");
+	/* Function: yycharlength - the length of the matched text in
+	   chars, as yytext().length() gives it, without building the
+	   text.  Under %byte yylength() counts bytes, so the UTF-8
+	   sequences are counted instead: one char per lead byte, two
+	   for a supplementary character, less the half of a split pair
+	   that belongs to the neighbouring match. */
+	m_outstream.println("\tprivate int yycharlength () {");
+	if (m_spec.m_byte_mode)
+	  {
+	    m_outstream.println("\t\tint length = 0;");
+	    m_outstream.println("\t\tfor (int i = yy_buffer_start; i < yy_buffer_end; ++i) {");
+	    m_outstream.println("\t\t\tint b = yy_buffer[i] & 0xFF;");
+	    m_outstream.println("\t\t\tif (b < 0x80 || b >= 0xC0) {");
+	    m_outstream.println("\t\t\t\tlength += (b >= 0xF0) ? 2 : 1;");
+	    m_outstream.println("\t\t\t}");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\tif (0 != yy_start_low) {");
+	    m_outstream.println("\t\t\t++length;");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\tif (0 != yy_end_low) {");
+	    m_outstream.println("\t\t\t--length;");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\treturn length;");
+	  }
+	else
+	  {
+	    m_outstream.println("\t\treturn yy_buffer_end - yy_buffer_start;");
+	  }
+	m_outstream.println("\t}");
+
+	/* Function: yycharat - char index of the matched text, as
+	   yytext().charAt(index) gives it.  Under %byte only an ASCII
+	   first char is read straight from the buffer. */
+	m_outstream.println("\tprivate char yycharat (int index) {");
+	if (m_spec.m_byte_mode)
+	  {
+	    m_outstream.println("\t\tif (0 == index && 0 == yy_start_low");
+	    m_outstream.println("\t\t    && yy_buffer_end > yy_buffer_start && yy_buffer[yy_buffer_start] >= 0) {");
+	    m_outstream.println("\t\t\treturn (char) yy_buffer[yy_buffer_start];");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\treturn yytext().charAt(index);");
+	  }
+	else
+	  {
+	    m_outstream.println("\t\tif (index < 0 || index >= yy_buffer_end - yy_buffer_start) {");
+	    m_outstream.println("\t\t\tthrow new java.lang.IndexOutOfBoundsException();");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\treturn yy_buffer[yy_buffer_start + index];");
+	  }
+	m_outstream.println("\t}");
+
+	/* Function: yy_slide - called only once yy_buffer is full.
+	   The current token is moved to the front in one block copy; the
+	   buffer is doubled at the same time if that token already fills
+	   more than half of it.  Refills in between never copy. */
+	m_outstream.println("\tprivate void yy_slide () {");
+	m_outstream.println("\t\tint live = yy_buffer_read - yy_buffer_start;");
+	m_outstream.println("\t\t" + yy_buffer_type() + " buf[] = yy_buffer;");
+	m_outstream.println("\t\tif (live > buf.length / 2) {");
+	m_outstream.println("\t\t\tbuf = new " + yy_buffer_type() + "[2 * buf.length];");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tjava.lang.System.arraycopy(yy_buffer, yy_buffer_start, buf, 0, live);");
+	m_outstream.println("\t\tyy_buffer = buf;");
+	m_outstream.println("\t\tyy_buffer_index = yy_buffer_index - yy_buffer_start;");
+	m_outstream.println("\t\tyy_buffer_end = yy_buffer_end - yy_buffer_start;");
+	m_outstream.println("\t\tyy_buffer_read = live;");
+	m_outstream.println("\t\tyy_buffer_start = 0;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_presize - when the input length is known up
+	   front, size the buffer once so that it is never slid.  The
+	   spare slot lets the final read report end of input without
+	   a slide. */
+	m_outstream.println("\tprivate void yy_presize (long length) {");
+	m_outstream.println("\t\tif (length >= YY_BUFFER_SIZE) {");
+	m_outstream.println("\t\t\tyy_buffer = new " + yy_buffer_type() + "[(int) "
+			    + "java.lang.Math.min(length + 1, YY_PRESIZE_MAX)];");
 	m_outstream.println("\t\t}");
-	m_outstream.println("\t\treturn newbuf;");
 	m_outstream.println("\t}");
 
 	/* Function: yy_error */
-	m_outstream.println("\tprivate final int YY_E_INTERNAL = 0;");
-	m_outstream.println("\tprivate final int YY_E_MATCH = 1;");
-	m_outstream.println("\tprivate java.lang.String yy_error_string[] = {");
+	m_outstream.println("\tprivate static final int YY_E_INTERNAL = 0;");
+	m_outstream.println("\tprivate static final int YY_E_MATCH = 1;");
+	m_outstream.println("\tprivate static final java.lang.String yy_error_string[] = {");
 	m_outstream.println("\t\t\"Error: Internal error.\\n\",");
 	m_outstream.println("\t\t\"Error: Unmatched input.\\n\"");
 	m_outstream.println("\t};");
@@ -1068,11 +1710,17 @@ class CEmit
 	m_outstream.println("\t}");*/
 
 
+	if (table_resource())
+	  {
+	    emit_resource_helpers();
+	    return;
+	  }
+
 	// Function: private int [][] unpackFromString(int size1, int size2, String st)
 	// Added 6/24/98 Raimondas Lencevicius
 	// May be made more efficient by replacing String operations
 	// Assumes correctly formed input String. Performs no error checking
-	m_outstream.println("\tprivate int[][] unpackFromString"+
+	m_outstream.println("\tprivate static int[][] unpackFromString"+
 			    "(int size1, int size2, String st) {");
 	m_outstream.println("\t\tint colonIndex = -1;");
 	m_outstream.println("\t\tString lengthString;");
@@ -1115,6 +1763,260 @@ class CEmit
 	m_outstream.println("\t}");
       }
 
+  /***************************************************************
+    Function: table_resource
+    Description: Whether the tables go to a resource file, which
+    they do under %resource.  CLexGen rejects %resource with
+    %direct, which leaves no tables.
+    **************************************************************/
+  private boolean table_resource
+    (
+     )
+      {
+	return m_spec.m_resource;
+      }
+
+  /***************************************************************
+    Function: table_resource_name
+    Description: The file name of the table resource.  It is
+    looked up next to the scanner class, so it has to be copied
+    to wherever the class goes.
+    **************************************************************/
+  private String table_resource_name
+    (
+     )
+      {
+	return new String(m_spec.m_class_name) + ".tables";
+      }
+
+  /***************************************************************
+    Function: emit_resource_helpers
+    Description: Emits, for %resource, yy_open_tables, which reads
+    the whole table resource in one go at class initialization and
+    checks it against the CRC compiled into the class, so a stale
+    file of the same size is caught, and the unpackFromString that takes each table from it in
+    turn.  There is nothing to parse: the tables are stored as
+    they are used, so each one is a bulk copy.
+    **************************************************************/
+  private void emit_resource_helpers
+    (
+     )
+      throws java.io.IOException
+      {
+	String name = table_resource_name();
+	String cls = new String(m_spec.m_class_name);
+
+	m_outstream.println("	private static java.nio.IntBuffer yy_open_tables () {");
+	m_outstream.println("		java.io.InputStream in = " + cls
+			    + ".class.getResourceAsStream(\"" + name + "\");");
+	m_outstream.println("		if (null == in) {");
+	m_outstream.println("			throw new Error(\"" + name + ": not found\");");
+	m_outstream.println("		}");
+	m_outstream.println("		try {");
+	m_outstream.println("			java.io.DataInputStream data = new java.io.DataInputStream(in);");
+	m_outstream.println("			try {");
+	m_outstream.println("				if (YY_TABLES_MAGIC != data.readInt()");
+	m_outstream.println("				    || YY_TABLES_SIZE != data.readInt()) {");
+	m_outstream.println("					throw new Error(\"" + name
+			    + ": not the tables of this scanner\");");
+	m_outstream.println("				}");
+	m_outstream.println("				byte[] bytes = new byte[4 * YY_TABLES_SIZE];");
+	m_outstream.println("				data.readFully(bytes);");
+	m_outstream.println("				java.util.zip.CRC32 crc = new java.util.zip.CRC32();");
+	m_outstream.println("				crc.update(bytes, 0, bytes.length);");
+	m_outstream.println("				if (YY_TABLES_CRC != (int) crc.getValue()) {");
+	m_outstream.println("					throw new Error(\"" + name
+			    + ": not the tables of this scanner\");");
+	m_outstream.println("				}");
+	m_outstream.println("				return java.nio.ByteBuffer.wrap(bytes).asIntBuffer();");
+	m_outstream.println("			} finally {");
+	m_outstream.println("				data.close();");
+	m_outstream.println("			}");
+	m_outstream.println("		} catch (java.io.IOException e) {");
+	m_outstream.println("			throw new Error(\"" + name + ": \" + e.getMessage());");
+	m_outstream.println("		}");
+	m_outstream.println("	}");
+	m_outstream.println("	private static int[][] unpackFromString"
+			    + "(int size1, int size2, java.nio.IntBuffer in) {");
+	m_outstream.println("		int res[][] = new int[size1][size2];");
+	m_outstream.println("		for (int i = 0; i < size1; i++) {");
+	m_outstream.println("			in.get(res[i]);");
+	m_outstream.println("		}");
+	m_outstream.println("		return res;");
+	m_outstream.println("	}");
+      }
+
+  /***************************************************************
+    Function: emit_table_resource
+    Description: Writes the tables collected by
+    emit_table_as_string to the resource file, next to the
+    generated source: YY_TABLES_MAGIC, the number of ints, and the
+    ints, big-endian.  The CRC-32 of the ints goes in the source as
+    YY_TABLES_CRC.  Then lets go of the buffer they were read
+    into, which the tables no longer need.
+    **************************************************************/
+  private void emit_table_resource
+    (
+     )
+      throws java.io.IOException
+      {
+	int size = 0;
+	for (int i = 0; i < m_tables.size(); ++i)
+	  {
+	    size += ((int[]) m_tables.elementAt(i)).length;
+	  }
+	java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+
+	java.io.File file = new java.io.File(m_spec.m_out_dir,
+					     table_resource_name());
+	java.io.DataOutputStream out = new java.io.DataOutputStream(
+	  new java.io.BufferedOutputStream(new java.io.FileOutputStream(file)));
+	try
+	  {
+	    out.writeInt(YY_TABLES_MAGIC);
+	    out.writeInt(size);
+	    for (int i = 0; i < m_tables.size(); ++i)
+	      {
+		int[] table = (int[]) m_tables.elementAt(i);
+		for (int j = 0; j < table.length; ++j)
+		  {
+		    out.writeInt(table[j]);
+		    crc.update(table[j] >>> 24);
+		    crc.update(table[j] >>> 16);
+		    crc.update(table[j] >>> 8);
+		    crc.update(table[j]);
+		  }
+	      }
+	  }
+	finally
+	  {
+	    out.close();
+	  }
+	m_tables.removeAllElements();
+
+	m_outstream.println("	private static final int YY_TABLES_MAGIC = "
+			    + YY_TABLES_MAGIC + ";");
+	m_outstream.println("	private static final int YY_TABLES_SIZE = "
+			    + size + ";");
+	m_outstream.println("	private static final int YY_TABLES_CRC = "
+			    + (int) crc.getValue() + ";");
+	m_outstream.println("	static {");
+	m_outstream.println("		yy_tables = null;");
+	m_outstream.println("	}");
+	m_outstream.println();
+      }
+
+  /* "JLXT", first in a table resource. */
+  private static final int YY_TABLES_MAGIC = 0x4a4c5854;
+
+  /***************************************************************
+    Function: emit_byte_advance
+    Description: Emits the %byte yy_advance, which returns ASCII
+    bytes as they are and decodes multi-byte UTF-8 sequences on a
+    slow path.  A supplementary character comes back as a surrogate
+    pair, as it would from a Reader: the high surrogate is returned
+    first and yy_buffer_index is stepped back onto the final
+    continuation byte, which then yields the low surrogate.  The
+    pending low surrogate is part of the scan position, so
+    yy_mark_end and yy_to_mark save and restore it along with
+    yy_buffer_index.  Malformed sequences decode to U+FFFD.
+    **************************************************************/
+  private void emit_byte_advance
+    (
+     )
+      throws java.io.IOException
+      {
+	m_outstream.println("\tprivate int yy_advance ()");
+	m_outstream.println("\t\tthrows java.io.IOException {");
+	m_outstream.println("\t\tint b;");
+	m_outstream.println("\t\tif (yy_buffer_index < yy_buffer_read) {");
+	m_outstream.println("\t\t\tb = yy_buffer[yy_buffer_index++];");
+	m_outstream.println("\t\t\tif (b >= 0) {");
+	m_outstream.println("\t\t\t\treturn b;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tb &= 0xFF;");
+	m_outstream.println("\t\t} else {");
+	m_outstream.println("\t\t\tb = yy_advance_byte();");
+	m_outstream.println("\t\t\tif (b < 0x80) {");
+	m_outstream.println("\t\t\t\treturn (b < 0) ? YY_EOF : b;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn yy_decode(b);");
+	m_outstream.println("\t}");
+
+	m_outstream.println("\tprivate int yy_decode (int b)");
+	m_outstream.println("\t\tthrows java.io.IOException {");
+	m_outstream.println("\t\tint n;");
+	m_outstream.println("\t\tint c;");
+	m_outstream.println("\t\tif (b >= 0xF0) {");
+	m_outstream.println("\t\t\tn = 3;");
+	m_outstream.println("\t\t\tc = b & 0x07;");
+	m_outstream.println("\t\t} else if (b >= 0xE0) {");
+	m_outstream.println("\t\t\tn = 2;");
+	m_outstream.println("\t\t\tc = b & 0x0F;");
+	m_outstream.println("\t\t} else if (b >= 0xC0) {");
+	m_outstream.println("\t\t\tn = 1;");
+	m_outstream.println("\t\t\tc = b & 0x1F;");
+	m_outstream.println("\t\t} else {");
+	m_outstream.println("\t\t\tc = yy_pending_low;");
+	m_outstream.println("\t\t\tyy_pending_low = 0;");
+	m_outstream.println("\t\t\treturn (0 != c) ? c : 0xFFFD;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\twhile (0 < n--) {");
+	m_outstream.println("\t\t\tb = yy_advance_byte();");
+	m_outstream.println("\t\t\tif (b < 0x80 || b >= 0xC0) {");
+	m_outstream.println("\t\t\t\tif (b >= 0) {");
+	m_outstream.println("\t\t\t\t\t--yy_buffer_index;");
+	m_outstream.println("\t\t\t\t}");
+	m_outstream.println("\t\t\t\treturn 0xFFFD;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tc = (c << 6) | (b & 0x3F);");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (c > 0xFFFF) {");
+	m_outstream.println("\t\t\tyy_pending_low = java.lang.Character.lowSurrogate(c);");
+	m_outstream.println("\t\t\t--yy_buffer_index;");
+	m_outstream.println("\t\t\treturn java.lang.Character.highSurrogate(c);");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn c;");
+	m_outstream.println("\t}");
+      }
+
+  /***************************************************************
+    Function: emit_split_text
+    Description: Emits, for %byte, yy_split_text, the yytext of a
+    lexeme that starts with the low half of a surrogate pair or
+    ends with the high half.  The bytes of such a pair are not a
+    whole lexeme's worth of UTF-8: a leading low half is the one
+    byte that yy_start_low stands for, and a trailing high half is
+    decoded from the four bytes of the pair, the last of which is
+    past yy_buffer_end.
+    **************************************************************/
+  private void emit_split_text
+    (
+     )
+      throws java.io.IOException
+      {
+	m_outstream.println("\tprivate java.lang.String yy_split_text () {");
+	m_outstream.println("\t\tjava.lang.StringBuilder text = new java.lang.StringBuilder();");
+	m_outstream.println("\t\tint start = yy_buffer_start;");
+	m_outstream.println("\t\tint end = yy_buffer_end;");
+	m_outstream.println("\t\tif (0 != yy_start_low) {");
+	m_outstream.println("\t\t\ttext.append((char) yy_start_low);");
+	m_outstream.println("\t\t\t++start;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (0 != yy_end_low) {");
+	m_outstream.println("\t\t\tend = end - 3;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\ttext.append(new java.lang.String(yy_buffer, start, end - start,");
+	m_outstream.println("\t\t\tjava.nio.charset.StandardCharsets.UTF_8));");
+	m_outstream.println("\t\tif (0 != yy_end_low) {");
+	m_outstream.println("\t\t\ttext.append(new java.lang.String(yy_buffer, end, 4,");
+	m_outstream.println("\t\t\t\tjava.nio.charset.StandardCharsets.UTF_8).charAt(0));");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn text.toString();");
+	m_outstream.println("\t}");
+      }
+
   /***************************************************************
     Function: emit_header
     Description: Emits class header.
@@ -1138,14 +2040,59 @@ class CEmit
 	m_outstream.print("class ");
 	m_outstream.print(new String(m_spec.m_class_name,0,
 					  m_spec.m_class_name.length));
+	m_outstream.print(" implements java.io.Closeable");
         if (m_spec.m_implements_name.length > 0) {
-	   m_outstream.print(" implements ");	
+	   m_outstream.print(", ");	
 	   m_outstream.print(new String(m_spec.m_implements_name,0,
 					  m_spec.m_implements_name.length));
 	}	  
 	m_outstream.println(" {");
       }
 
+  /***************************************************************
+    Function: newline_states
+    Description: Finds the DFA states that can be reached by a path
+    consuming '\n' or '\r'.  A lexeme accepted in any other state
+    holds no line terminator, so the generated yy_mark_start can skip
+    counting lines in it; those states get no YY_NL bit in yy_acpt.
+    States are counted as reachable from any state, not just the
+    start states, which can only add YY_NL bits.
+    **************************************************************/
+  private boolean[] newline_states
+    (
+     )
+      {
+	int nstates = m_spec.m_accept_vector.size();
+	boolean[] may_nl = new boolean[nstates];
+	int nl_col = m_spec.m_col_map[m_spec.m_ccls_map['\n']];
+	int cr_col = m_spec.m_col_map[m_spec.m_ccls_map['\r']];
+	boolean changed = true;
+
+	while (changed)
+	  {
+	    changed = false;
+	    for (int state = 0; state < nstates; ++state)
+	      {
+		CDTrans dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(
+		  m_spec.m_row_map[state]);
+		for (int col = 0; col < dtrans.m_dtrans.length; ++col)
+		  {
+		    int next = dtrans.m_dtrans[col];
+		    if (CDTrans.F == next || may_nl[next])
+		      {
+			continue;
+		      }
+		    if (may_nl[state] || nl_col == col || cr_col == col)
+		      {
+			may_nl[next] = true;
+			changed = true;
+		      }
+		  }
+	      }
+	  }
+	return may_nl;
+      }
+
   /***************************************************************
     Function: emit_table
     Description: Emits transition table.
@@ -1169,7 +2116,19 @@ class CEmit
 	    CUtility.ASSERT(null != m_outstream);
 	  }
 
-	m_outstream.println("\tprivate int yy_acpt[] = {");
+	if (table_resource())
+	  {
+	    /* Read before the tables, which take their values from it. */
+	    m_outstream.println("\tprivate static java.nio.IntBuffer yy_tables = yy_open_tables();");
+	    m_outstream.println();
+	  }
+
+	boolean[] may_nl = newline_states();
+
+	/* The tables are static and final: decoded once when the class
+	   is loaded and shared, read-only, by every instance. */
+	/* Its values are YY_ flags, which fit in a byte. */
+	m_outstream.println("\tprivate static final byte yy_acpt[] = {");
 	size = m_spec.m_accept_vector.size();
 	for (elem = 0; elem < size; ++elem)
 	  {
@@ -1197,6 +2156,10 @@ class CEmit
 		  {
 		    m_outstream.print("YY_NO_ANCHOR");
 		  }
+		if (m_spec.m_count_lines && may_nl[elem])
+		  {
+		    m_outstream.print(" | YY_NL");
+		  }
 	      }
 	    else 
 	      {
@@ -1212,20 +2175,49 @@ class CEmit
 	  }
 	m_outstream.println("\t};");
 
+	if (m_spec.m_direct)
+	  {
+	    /* The matcher has the transitions compiled in. */
+	    return;
+	  }
+
 	// CSA: modified yy_cmap to use string packing 9-Aug-1999
 	int[] yy_cmap = new int[m_spec.m_ccls_map.length];
 	for (i = 0; i < m_spec.m_ccls_map.length; ++i)
 	    yy_cmap[i] = m_spec.m_col_map[m_spec.m_ccls_map[i]];
-	m_outstream.print("\tprivate int yy_cmap[] = unpackFromString(");
-	emit_table_as_string(new int[][] { yy_cmap });
-	m_outstream.println(")[0];");
-	m_outstream.println();
+	emit_narrow_helpers();
+	emit_cmap(yy_cmap);
+
+	if (m_spec.m_byte_mode)
+	  {
+	    /* Classes of the first 256 lookahead values, so that ASCII
+	       input never touches the (possibly 64K-entry) yy_cmap.
+	       Values yy_cmap does not cover map to YY_F, which fails
+	       the same way an out-of-range yy_cmap lookup would.  Under
+	       %flat and %comb, -1 would only step back into the slot
+	       before, so they get a value that takes any row offset
+	       below 0. */
+	    int none = (m_spec.m_flat || m_spec.m_comb)
+	      ? -(java.lang.Integer.MAX_VALUE / 2) : -1;
+	    int[] yy_bmap = new int[256];
+	    for (i = 0; i < yy_bmap.length; ++i)
+	      yy_bmap[i] = (i < yy_cmap.length) ? yy_cmap[i] : none;
+	    emit_table_decl("yy_bmap", new int[][] { yy_bmap }, true);
+	  }
+
+	if (m_spec.m_comb)
+	  {
+	    emit_comb_table();
+	    return;
+	  }
+	if (m_spec.m_flat)
+	  {
+	    emit_flat_table();
+	    return;
+	  }
 
 	// CSA: modified yy_rmap to use string packing 9-Aug-1999
-	m_outstream.print("\tprivate int yy_rmap[] = unpackFromString(");
-	emit_table_as_string(new int[][] { m_spec.m_row_map });
-	m_outstream.println(")[0];");
-	m_outstream.println();
+	emit_table_decl("yy_rmap", new int[][] { m_spec.m_row_map }, true);
 
 	// 6/24/98 Raimondas Lencevicius
 	// modified to use
@@ -1237,13 +2229,408 @@ class CEmit
 	    CUtility.ASSERT(dtrans.m_dtrans.length==m_spec.m_dtrans_ncols);
 	    yy_nxt[elem] = dtrans.m_dtrans;
 	}
-	m_outstream.print
-	  ("\tprivate int yy_nxt[][] = unpackFromString(");
-	emit_table_as_string(yy_nxt);
-	m_outstream.println(");");
+	emit_table_decl("yy_nxt", yy_nxt, false);
+      }
+
+  /***************************************************************
+    Function: paged_cmap
+    Description: Whether the class map is split into an ASCII map
+    and pages, which is the case when it covers more than 8-bit
+    input, i.e. under %unicode.  %byte keeps a single map, which
+    yy_bmap already keeps off the hot path.
+    **************************************************************/
+  private boolean paged_cmap
+    (
+     )
+      {
+	return false == m_spec.m_byte_mode
+	  && false == m_spec.m_direct
+	  && m_spec.m_ccls_map.length > CUtility.MAX_EIGHT_BIT + 1 + CSpec.NUM_PSEUDO;
+      }
+
+  /***************************************************************
+    Function: emit_cmap
+    Description: Emits the class map.  Up to 8-bit input it is a
+    single yy_cmap.  Beyond that, ASCII gets its own 128-entry
+    yy_amap, looked up first, and the rest goes through two
+    levels: yy_cpage gives where each 256-character page starts
+    in yy_cmap, and pages with the same classes, such as the many
+    that are all "other", are stored once.  The 64K-entry int[]
+    map this replaces takes 256 KB; for a spec with a few dozen
+    classes the paged one, in bytes, takes a few KB, and ASCII
+    input only touches yy_amap.
+    **************************************************************/
+  private void emit_cmap
+    (
+     int[] yy_cmap
+     )
+      {
+	if (false == paged_cmap())
+	  {
+	    emit_table_decl("yy_cmap", new int[][] { yy_cmap }, true);
+	    return;
+	  }
+
+	int npages = (yy_cmap.length + 255) >> 8;
+	int[] yy_cpage = new int[npages];
+	java.util.Vector pages = new java.util.Vector();
+	for (int p = 0; p < npages; ++p)
+	  {
+	    int[] page = new int[256];
+	    for (int c = 0; c < 256; ++c)
+	      {
+		int ch = (p << 8) + c;
+		page[c] = (ch < yy_cmap.length) ? yy_cmap[ch] : 0;
+	      }
+	    int q;
+	    for (q = 0; q < pages.size(); ++q)
+	      {
+		if (java.util.Arrays.equals(page, (int[]) pages.elementAt(q)))
+		  {
+		    break;
+		  }
+	      }
+	    if (q == pages.size())
+	      {
+		pages.addElement(page);
+	      }
+	    yy_cpage[p] = q << 8;
+	  }
+	int[][] data = new int[pages.size()][];
+	pages.copyInto(data);
+
+	emit_table_decl("yy_amap", new int[][] { java.util.Arrays.copyOf(yy_cmap, 128) }, true);
+	emit_table_decl("yy_cpage", new int[][] { yy_cpage }, true);
+	emit_table_decl("yy_cmap", new int[][] { flatten(data) }, true);
+      }
+
+  /***************************************************************
+    Function: emit_table_decl
+    Description: Emits the declaration of table name, holding
+    ia, or ia[0] if row.  The element type is the narrowest of
+    byte, short and int that holds every value, so a DFA with
+    fewer than 128 states gets byte transitions, a quarter the
+    size of int ones.  Java widens the elements back to int when
+    they are read, YY_F (-1) included, so the driver reads every
+    table the same way whatever its type.
+    **************************************************************/
+  private void emit_table_decl
+    (
+     String name,
+     int[][] ia,
+     boolean row
+     )
+      {
+	String type = narrowest_type(ia);
+	boolean narrow = false == type.equals("int");
+
+	m_outstream.print("\tprivate static final " + type + " " + name
+			  + (row ? "[] = " : "[][] = "));
+	m_outstream.print(narrow ? "yy_" + type + "_table(unpackFromString("
+			  : "unpackFromString(");
+	emit_table_as_string(ia);
+	m_outstream.print(narrow ? "))" : ")");
+	m_outstream.println(row ? "[0];" : ";");
+	m_outstream.println();
+      }
+
+  /***************************************************************
+    Function: narrowest_type
+    Description: The narrowest of byte, short and int that holds
+    every value of ia.
+    **************************************************************/
+  private static String narrowest_type
+    (
+     int[][] ia
+     )
+      {
+	int min = 0;
+	int max = 0;
+	for (int i = 0; i < ia.length; ++i)
+	  {
+	    for (int j = 0; j < ia[i].length; ++j)
+	      {
+		min = java.lang.Math.min(min, ia[i][j]);
+		max = java.lang.Math.max(max, ia[i][j]);
+	      }
+	  }
+	if (min >= java.lang.Byte.MIN_VALUE && max <= java.lang.Byte.MAX_VALUE)
+	  {
+	    return "byte";
+	  }
+	if (min >= java.lang.Short.MIN_VALUE && max <= java.lang.Short.MAX_VALUE)
+	  {
+	    return "short";
+	  }
+	return "int";
+      }
+
+  /***************************************************************
+    Function: emit_narrow_helpers
+    Description: Emits yy_byte_table and yy_short_table, which
+    narrow what unpackFromString returns for emit_table_decl.
+    **************************************************************/
+  private void emit_narrow_helpers
+    (
+     )
+      {
+	String[] types = { "byte", "short" };
+	for (int t = 0; t < types.length; ++t)
+	  {
+	    String type = types[t];
+	    m_outstream.println("\tprivate static " + type + "[][] yy_" + type
+				+ "_table (int[][] ints) {");
+	    m_outstream.println("\t\t" + type + "[][] res = new " + type
+				+ "[ints.length][];");
+	    m_outstream.println("\t\tfor (int i = 0; i < ints.length; i++) {");
+	    m_outstream.println("\t\t\tres[i] = new " + type + "[ints[i].length];");
+	    m_outstream.println("\t\t\tfor (int j = 0; j < ints[i].length; j++) {");
+	    m_outstream.println("\t\t\t\tres[i][j] = (" + type + ") ints[i][j];");
+	    m_outstream.println("\t\t\t}");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\treturn res;");
+	    m_outstream.println("\t}");
+	  }
+	m_outstream.println();
+      }
+
+  /***************************************************************
+    Function: flatten
+    Description: The rows of ia, one after the other.
+    **************************************************************/
+  private static int[] flatten
+    (
+     int[][] ia
+     )
+      {
+	int length = 0;
+	for (int i = 0; i < ia.length; ++i)
+	  {
+	    length += ia[i].length;
+	  }
+	int[] flat = new int[length];
+	length = 0;
+	for (int i = 0; i < ia.length; ++i)
+	  {
+	    System.arraycopy(ia[i], 0, flat, length, ia[i].length);
+	    length += ia[i].length;
+	  }
+	return flat;
+      }
+
+  /***************************************************************
+    Function: emit_flat_table
+    Description: Emits yy_rmap and yy_nxt for %flat.  yy_nxt is
+    a single int[] holding the rows one after the other, and
+    yy_rmap holds the offset of each state's row in it rather
+    than the row number, so a transition is
+    yy_nxt[yy_rmap[state] + yy_cmap[lookahead]]: one add and one
+    array, where the int[][] layout loads and bounds-checks a row
+    array first.
+    **************************************************************/
+  private void emit_flat_table
+    (
+     )
+      {
+	int ncols = m_spec.m_dtrans_ncols;
+	int nrows = m_spec.m_dtrans_vector.size();
+	int[] yy_rmap = new int[m_spec.m_row_map.length];
+	int[] yy_nxt = new int[nrows * ncols];
+	int i;
+
+	for (i = 0; i < yy_rmap.length; ++i)
+	  {
+	    yy_rmap[i] = m_spec.m_row_map[i] * ncols;
+	  }
+	for (i = 0; i < nrows; ++i)
+	  {
+	    CDTrans dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(i);
+	    CUtility.ASSERT(dtrans.m_dtrans.length == ncols);
+	    System.arraycopy(dtrans.m_dtrans, 0, yy_nxt, i * ncols, ncols);
+	  }
+
+	emit_table_decl("yy_rmap", new int[][] { yy_rmap }, true);
+	emit_table_decl("yy_nxt", new int[][] { yy_nxt }, true);
+      }
+
+  /***************************************************************
+    Function: emit_comb_table
+    Description: Emits the transition table for %comb, compressed
+    into a comb vector with default rows.
+
+    Each row may name another row as its default, and then keeps
+    only the entries where it differs from it; a row without a
+    default keeps only its entries that are not YY_F.  A default is
+    itself a row without one, so a lookup probes at most twice.
+    Choosing the defaults compares every pair of rows, which is
+    quadratic in the row count but only done once, by JLex.
+    The kept entries of every row are packed into yy_nxt by first
+    fit: entry c of row r is at yy_base[r] + c if yy_check there is
+    r.  Many keyword states share all but one transition with the
+    identifier state, which is what makes this pay off for specs
+    with many keywords.
+    **************************************************************/
+  private void emit_comb_table
+    (
+     )
+      {
+	int ncols = m_spec.m_dtrans_ncols;
+	int nrows = m_spec.m_dtrans_vector.size();
+	int[][] rows = new int[nrows][];
+	int[] yy_def = new int[nrows];
+	int[] kept = new int[nrows];
+	int r;
+	int c;
+
+	for (r = 0; r < nrows; ++r)
+	  {
+	    rows[r] = ((CDTrans) m_spec.m_dtrans_vector.elementAt(r)).m_dtrans;
+	    CUtility.ASSERT(rows[r].length == ncols);
+	  }
+
+	/* A row that is the closest match of some other row keeps
+	   all its entries and may serve as a default; every other
+	   row takes the closest of those, if that saves entries. */
+	boolean[] root = new boolean[nrows];
+	for (r = 0; r < nrows; ++r)
+	  {
+	    int best = -1;
+	    int least = differences(rows[r], null);
+	    for (int t = 0; t < nrows; ++t)
+	      {
+		int n;
+		if (t != r && (n = differences(rows[r], rows[t])) < least)
+		  {
+		    least = n;
+		    best = t;
+		  }
+	      }
+	    if (-1 != best)
+	      {
+		root[best] = true;
+	      }
+	  }
+	for (r = 0; r < nrows; ++r)
+	  {
+	    yy_def[r] = -1;
+	    kept[r] = differences(rows[r], null);
+	    for (int t = 0; t < nrows && false == root[r]; ++t)
+	      {
+		int n;
+		if (root[t] && (n = differences(rows[r], rows[t])) < kept[r])
+		  {
+		    kept[r] = n;
+		    yy_def[r] = t;
+		  }
+	      }
+	  }
+
+	/* Pack the fullest rows first, each at the lowest base
+	   where its kept entries fall on free slots. */
+	Integer[] order = new Integer[nrows];
+	for (r = 0; r < nrows; ++r)
+	  {
+	    order[r] = Integer.valueOf(r);
+	  }
+	final int[] weight = kept;
+	java.util.Arrays.sort(order, new java.util.Comparator<Integer>() {
+	    public int compare(Integer a, Integer b)
+	      {
+		return weight[b.intValue()] - weight[a.intValue()];
+	      }
+	  });
+
+	int[] yy_base = new int[nrows];
+	int[] check = new int[nrows * ncols + ncols];
+	int[] next = new int[check.length];
+	int length = 0;
+	java.util.Arrays.fill(check, -1);
+	for (int k = 0; k < nrows; ++k)
+	  {
+	    r = order[k].intValue();
+	    int[] base_row = (-1 == yy_def[r]) ? null : rows[yy_def[r]];
+	    int base = 0;
+	    for (c = 0; c < ncols; ++c)
+	      {
+		if (keeps(rows[r], base_row, c) && -1 != check[base + c])
+		  {
+		    ++base;
+		    c = -1;
+		  }
+	      }
+	    yy_base[r] = base;
+	    for (c = 0; c < ncols; ++c)
+	      {
+		if (keeps(rows[r], base_row, c))
+		  {
+		    check[base + c] = r;
+		    next[base + c] = rows[r][c];
+		  }
+	      }
+	    length = java.lang.Math.max(length, base + ncols);
+	  }
+
+	if (m_spec.m_verbose)
+	  {
+	    System.out.println("Comb tables have " + (length * 2 + nrows * 2)
+			       + " entries, in place of "
+			       + (nrows * ncols) + ".");
+	  }
+
+	emit_table_decl("yy_rmap", new int[][] { m_spec.m_row_map }, true);
+	emit_table_decl("yy_base", new int[][] { yy_base }, true);
+	emit_table_decl("yy_def", new int[][] { yy_def }, true);
+	emit_table_decl("yy_check", new int[][] { java.util.Arrays.copyOf(check, length) }, true);
+	emit_table_decl("yy_nxt", new int[][] { java.util.Arrays.copyOf(next, length) }, true);
+
+	m_outstream.println("\tprivate static int yy_comb (int row, int cls) {");
+	m_outstream.println("\t\tint i = yy_base[row] + cls;");
+	m_outstream.println("\t\tif (yy_check[i] == row) return yy_nxt[i];");
+	m_outstream.println("\t\trow = yy_def[row];");
+	m_outstream.println("\t\tif (row < 0) return YY_F;");
+	m_outstream.println("\t\ti = yy_base[row] + cls;");
+	m_outstream.println("\t\treturn (yy_check[i] == row) ? yy_nxt[i] : YY_F;");
+	m_outstream.println("\t}");
 	m_outstream.println();
       }
 
+  /***************************************************************
+    Function: keeps
+    Description: Whether the comb keeps entry c of row, given its
+    default row, or null for none.
+    **************************************************************/
+  private static boolean keeps
+    (
+     int[] row,
+     int[] default_row,
+     int c
+     )
+      {
+	return row[c] != ((null == default_row) ? CDTrans.F : default_row[c]);
+      }
+
+  /***************************************************************
+    Function: differences
+    Description: Number of entries the comb keeps for row, given
+    its default row, or null for none.
+    **************************************************************/
+  private static int differences
+    (
+     int[] row,
+     int[] default_row
+     )
+      {
+	int n = 0;
+	for (int c = 0; c < row.length; ++c)
+	  {
+	    if (keeps(row, default_row, c))
+	      {
+		++n;
+	      }
+	  }
+	return n;
+      }
+
   /***************************************************************
     Function: emit_driver
     Description: Output an integer table as a string.  Written by
@@ -1254,6 +2641,18 @@ class CEmit
 	   integer sequences as "value:length" pairs.
     **************************************************************/
   private void emit_table_as_string(int[][] ia) {
+	if (table_resource())
+	  {
+	    /* Only the sizes go in the source; see emit_table_resource. */
+	    m_outstream.print(ia.length + "," + (ia.length > 0 ? ia[0].length : 0)
+			      + ",yy_tables");
+	    for (int i = 0; i < ia.length; ++i)
+	      {
+		m_tables.addElement(ia[i]);
+	      }
+	    return;
+	  }
+
 	int sequenceLength = 0; // RL - length of the number sequence
 	boolean sequenceStarted = false; // RL - has number sequence started?
 	int previousInt = -20; // RL - Bogus -20 state.
@@ -1346,6 +2745,10 @@ class CEmit
 	    }
 	  
 	  emit_table();
+	  if (table_resource())
+	    {
+	      emit_table_resource();
+	    }
 
 	  if (m_spec.m_integer_type)
 	    {
@@ -1383,6 +2786,12 @@ class CEmit
 	      m_outstream.println(" {");
 	    }
 
+	  if (m_spec.m_direct)
+	    {
+	      emit_direct_driver();
+	      return;
+	    }
+
 	  m_outstream.println("\t\tint yy_lookahead;");
 	  m_outstream.println("\t\tint yy_anchor = YY_NO_ANCHOR;");
 	  /*m_outstream.println("\t\tint yy_state "
@@ -1417,8 +2826,28 @@ class CEmit
 	  m_outstream.println("\t\t\tyy_next_state = YY_F;");
 	  /*m_outstream.println("\t\t\t\tyy_next_state = "
 				 + "yy_next(yy_state,yy_lookahead);");*/
-	  m_outstream.println("\t\t\tyy_next_state = "
- 	   + "yy_nxt[yy_rmap[yy_state]][yy_cmap[yy_lookahead]];");
+	  String row = m_spec.m_comb ? "yy_comb(yy_rmap[yy_state], "
+	    : m_spec.m_flat ? "yy_nxt[yy_rmap[yy_state] + "
+	    : "yy_nxt[yy_rmap[yy_state]][";
+	  if (m_spec.m_byte_mode)
+	    {
+	      m_outstream.println("\t\t\tyy_next_state = "
+		+ row + "((yy_lookahead < 256)");
+	      m_outstream.println("\t\t\t\t? yy_bmap[yy_lookahead] : yy_cmap[yy_lookahead])"
+		+ (m_spec.m_comb ? ");" : "];"));
+	    }
+	  else if (paged_cmap())
+	    {
+	      m_outstream.println("\t\t\tyy_next_state = "
+		+ row + "((yy_lookahead < 128) ? yy_amap[yy_lookahead]");
+	      m_outstream.println("\t\t\t\t: yy_cmap[yy_cpage[yy_lookahead >> 8] + (yy_lookahead & 0xff)])"
+		+ (m_spec.m_comb ? ");" : "];"));
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\t\tyy_next_state = "
+		+ row + "yy_cmap[yy_lookahead]" + (m_spec.m_comb ? ");" : "];"));
+	    }
 
 	  if (NOT_EDBG)
 	    {
@@ -1444,23 +2873,7 @@ class CEmit
 	  // handle bare EOF.
 	  m_outstream.println("\t\t\tif (YY_EOF == yy_lookahead " 
 				 + "&& true == yy_initial) {");
-	  if (null != m_spec.m_eof_code)
-	    {
-	      m_outstream.println("\t\t\t\tyy_do_eof();");
-	    }
-	  if (true == m_spec.m_integer_type)
-	    {
-	      m_outstream.println("\t\t\t\treturn YYEOF;");
-	    }
-	  else if (null != m_spec.m_eof_value_code) 
-	    {
-	      m_outstream.print(new String(m_spec.m_eof_value_code,0,
-						m_spec.m_eof_value_read));
-	    }
-	  else
-	    {
-	      m_outstream.println("\t\t\t\treturn null;");
-	    }
+	  emit_eof_return("\t\t\t\t");
 	  m_outstream.println("\t\t\t}");
 
 	  m_outstream.println("\t\t\tif (YY_F != yy_next_state) {");
@@ -1503,6 +2916,10 @@ class CEmit
 	  m_outstream.println("\t\t\t\t\tyy_anchor = yy_acpt[yy_last_accept_state];");
 	  /*m_outstream.println("\t\t\t\t\tyy_anchor " 
 	    + "= yy_accept(yy_last_accept_state);");*/
+	  if (m_spec.m_count_lines)
+	    {
+	      m_outstream.println("\t\t\t\t\tyy_lexeme_nl = 0 != (YY_NL & yy_anchor);");
+	    }
 	  m_outstream.println("\t\t\t\t\tif (0 != (YY_END & yy_anchor)) {");
 	  m_outstream.println("\t\t\t\t\t\tyy_move_end();");
 	  m_outstream.println("\t\t\t\t\t}");
@@ -1547,6 +2964,266 @@ class CEmit
 	  m_outstream.println("\t\t}");*/
 	}
   
+  /***************************************************************
+    Function: emit_eof_return
+    Description: Emits what the driver does on a bare EOF: the
+    %eof code, then a return of %eofval or the default EOF value.
+    **************************************************************/
+  private void emit_eof_return
+    (
+     String tabs
+     )
+      throws java.io.IOException
+	{
+	  if (null != m_spec.m_eof_code)
+	    {
+	      m_outstream.println(tabs + "yy_do_eof();");
+	    }
+	  if (true == m_spec.m_integer_type)
+	    {
+	      m_outstream.println(tabs + "return YYEOF;");
+	    }
+	  else if (null != m_spec.m_eof_value_code) 
+	    {
+	      m_outstream.print(new String(m_spec.m_eof_value_code,0,
+						m_spec.m_eof_value_read));
+	    }
+	  else
+	    {
+	      m_outstream.println(tabs + "return null;");
+	    }
+	}
+
+  /***************************************************************
+    Function: emit_direct_driver
+    Description: Emits the body of the driver for %direct, and the
+    matcher it calls.  The driver takes the longest match from
+    yy_match and runs its action, exactly as the table-driven
+    driver does; only the way the DFA is walked differs.
+    **************************************************************/
+  private void emit_direct_driver
+    (
+     )
+      throws java.io.IOException
+	{
+	  m_outstream.println("\t\tint yy_anchor = YY_NO_ANCHOR;");
+	  m_outstream.println("\t\tint yy_last_accept_state;");
+	  m_outstream.println();
+	  m_outstream.println("\t\twhile (true) {");
+	  m_outstream.println("\t\t\tyy_mark_start();");
+	  m_outstream.println("\t\t\tyy_last_accept_state = yy_match();");
+	  m_outstream.println("\t\t\tif (YY_EOF_MATCH == yy_last_accept_state) {");
+	  emit_eof_return("\t\t\t\t");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t\tif (YY_NO_STATE == yy_last_accept_state) {");
+	  m_outstream.println("\t\t\t\tthrow (new Error(\"Lexical Error: Unmatched Input.\"));");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t\tyy_anchor = yy_acpt[yy_last_accept_state];");
+	  if (m_spec.m_count_lines)
+	    {
+	      m_outstream.println("\t\t\tyy_lexeme_nl = 0 != (YY_NL & yy_anchor);");
+	    }
+	  m_outstream.println("\t\t\tif (0 != (YY_END & yy_anchor)) {");
+	  m_outstream.println("\t\t\t\tyy_move_end();");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t\tyy_to_mark();");
+	  m_outstream.println("\t\t\tswitch (yy_last_accept_state) {");
+	  emit_actions("\t\t\t");
+	  m_outstream.println("\t\t\tdefault:");
+	  m_outstream.println("\t\t\t\tyy_error(YY_E_INTERNAL,false);");
+	  m_outstream.println("\t\t\tcase -1:");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  emit_direct_matcher();
+	}
+
+  /***************************************************************
+    Function: emit_direct_matcher
+    Description: Emits yy_match, which walks the DFA from the start
+    state of the current lexical state and returns the last
+    accepting state it passed (YY_NO_STATE if none, YY_EOF_MATCH
+    on a bare EOF), leaving the input marked at the end of that
+    match.
+
+    Instead of looking transitions up in yy_cmap, yy_rmap and
+    yy_nxt, each distinct row of the transition table becomes a
+    method yy_row_<n> whose character-class tests are compiled into
+    a balanced tree of comparisons on the lookahead, in the manner
+    of re2c.  The rows are separate methods rather than blocks of
+    one big switch so that the matcher stays under the size limit
+    above which HotSpot declines to compile a method; the row
+    methods are small enough to be inlined back into it.
+    **************************************************************/
+  private void emit_direct_matcher
+    (
+     )
+      throws java.io.IOException
+	{
+	  int nstates = m_spec.m_row_map.length;
+	  int nrows = m_spec.m_dtrans_vector.size();
+	  int nchars = m_spec.m_ccls_map.length;
+
+	  m_outstream.println("\tprivate static final int YY_EOF_MATCH = -2;");
+	  m_outstream.println("\tprivate int yy_match ()");
+	  m_outstream.println("\t\tthrows java.io.IOException {");
+	  m_outstream.println("\t\tint yy_state = yy_state_dtrans[yy_lexical_state];");
+	  m_outstream.println("\t\tint yy_last_accept_state = YY_NO_STATE;");
+	  m_outstream.println("\t\tboolean yy_initial = true;");
+	  m_outstream.println("\t\tint yy_lookahead;");
+	  m_outstream.println("\t\tif (YY_NOT_ACCEPT != yy_acpt[yy_state]) {");
+	  m_outstream.println("\t\t\tyy_last_accept_state = yy_state;");
+	  m_outstream.println("\t\t\tyy_mark_end();");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t\twhile (true) {");
+	  m_outstream.println("\t\t\tif (yy_initial && yy_at_bol) yy_lookahead = YY_BOL;");
+	  m_outstream.println("\t\t\telse yy_lookahead = yy_advance();");
+	  m_outstream.println("\t\t\tif (YY_EOF == yy_lookahead && yy_initial) {");
+	  m_outstream.println("\t\t\t\treturn YY_EOF_MATCH;");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t\tswitch (yy_state) {");
+	  /* A state that can go to itself, other than a start state,
+	     gets a loop of its own that stays in it without going back
+	     through the switch: identifier, number, whitespace and
+	     comment bodies are scanned there.  The last accepting state
+	     is already this one, and yy_initial is already false. */
+	  boolean loops[] = new boolean[nstates];
+	  for (int state = 0; state < nstates; ++state)
+	    {
+	      CDTrans dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(
+		m_spec.m_row_map[state]);
+	      for (int col = 0; col < dtrans.m_dtrans.length; ++col)
+		{
+		  loops[state] = loops[state] || state == dtrans.m_dtrans[col];
+		}
+	    }
+	  for (int i = 0; i < m_spec.m_state_dtrans.length; ++i)
+	    {
+	      if (CDTrans.F != m_spec.m_state_dtrans[i])
+		{
+		  loops[m_spec.m_state_dtrans[i]] = false;
+		}
+	    }
+	  for (int state = 0; state < nstates; ++state)
+	    {
+	      if (false == loops[state])
+		{
+		  continue;
+		}
+	      String row = "yy_row_" + m_spec.m_row_map[state] + "(yy_lookahead)";
+	      m_outstream.println("\t\t\tcase " + state + ":");
+	      m_outstream.println("\t\t\t\tyy_state = " + row + ";");
+	      m_outstream.println("\t\t\t\twhile (" + state + " == yy_state) {");
+	      if (null != m_spec.m_accept_vector.elementAt(state))
+		{
+		  m_outstream.println("\t\t\t\t\tyy_mark_end();");
+		}
+	      m_outstream.println("\t\t\t\t\tyy_lookahead = yy_advance();");
+	      m_outstream.println("\t\t\t\t\tyy_state = " + row + ";");
+	      m_outstream.println("\t\t\t\t}");
+	      m_outstream.println("\t\t\t\tbreak;");
+	    }
+	  for (int row = 0; row < nrows; ++row)
+	    {
+	      boolean any = false;
+	      for (int state = 0; state < nstates; ++state)
+		{
+		  if (m_spec.m_row_map[state] == row && false == loops[state])
+		    {
+		      m_outstream.print(any ? " " : "\t\t\t");
+		      m_outstream.print("case " + state + ":");
+		      any = true;
+		    }
+		}
+	      if (any)
+		{
+		  m_outstream.println();
+		  m_outstream.println("\t\t\t\tyy_state = yy_row_" + row
+				      + "(yy_lookahead);");
+		  m_outstream.println("\t\t\t\tbreak;");
+		}
+	    }
+	  m_outstream.println("\t\t\tdefault:");
+	  m_outstream.println("\t\t\t\tyy_state = YY_F;");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t\tif (YY_F == yy_state) {");
+	  m_outstream.println("\t\t\t\treturn yy_last_accept_state;");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t\tyy_initial = false;");
+	  m_outstream.println("\t\t\tif (YY_NOT_ACCEPT != yy_acpt[yy_state]) {");
+	  m_outstream.println("\t\t\t\tyy_last_accept_state = yy_state;");
+	  m_outstream.println("\t\t\t\tyy_mark_end();");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t}");
+
+	  /* One method per row.  The lookahead values [0, nchars) are
+	     cut into maximal runs with the same next state; values past
+	     the character map (which the table-driven scanner would
+	     fail on with an index out of bounds) have no transition. */
+	  int lo[] = new int[nchars + 1];
+	  int next[] = new int[nchars + 1];
+	  for (int row = 0; row < nrows; ++row)
+	    {
+	      CDTrans dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(row);
+	      int runs = 0;
+	      for (int c = 0; c < nchars; ++c)
+		{
+		  int to = dtrans.m_dtrans[m_spec.m_col_map[m_spec.m_ccls_map[c]]];
+		  if (0 == runs || next[runs - 1] != to)
+		    {
+		      lo[runs] = c;
+		      next[runs] = to;
+		      ++runs;
+		    }
+		}
+	      if (CDTrans.F != next[runs - 1])
+		{
+		  lo[runs] = nchars;
+		  next[runs] = CDTrans.F;
+		  ++runs;
+		}
+
+	      m_outstream.println("\tprivate static int yy_row_" + row
+				  + " (int yy_lookahead) {");
+	      emit_direct_tree(lo, next, 0, runs, "\t\t");
+	      m_outstream.println("\t}");
+	    }
+	}
+
+  /***************************************************************
+    Function: emit_direct_tree
+    Description: Emits a binary search over the runs [from, to),
+    which together cover every lookahead value that can reach it,
+    ending in a return of the next state of the run that holds the
+    lookahead.
+    **************************************************************/
+  private void emit_direct_tree
+    (
+     int lo[],
+     int next[],
+     int from,
+     int to,
+     String tabs
+     )
+      throws java.io.IOException
+	{
+	  if (1 == to - from)
+	    {
+	      m_outstream.println(tabs + "return "
+				  + (CDTrans.F == next[from] ? "YY_F" : "" + next[from])
+				  + ";");
+	      return;
+	    }
+	  int mid = (from + to) >>> 1;
+	  m_outstream.println(tabs + "if (yy_lookahead < " + lo[mid] + ") {");
+	  emit_direct_tree(lo, next, from, mid, tabs + "\t");
+	  m_outstream.println(tabs + "}");
+	  emit_direct_tree(lo, next, mid, to, tabs);
+	}
+
   /***************************************************************
     Function: emit_actions
     Description:     
@@ -4532,6 +6209,7 @@ class CError
   static final int E_DASH = 18;
   static final int E_ZERO = 19;
   static final int E_BADCTRL = 20;
+  static final int E_TABLES = 21;
   
   /********************************************************
     Constants
@@ -4562,6 +6240,9 @@ class CError
       "Zero-length regular expression.",
       "Illegal \\^C-style escape sequence (character following caret must\n"
         + "\tbe alphabetic).",
+      "Conflicting table directives: %direct keeps no tables, so takes\n"
+	+ "\tnone of %flat, %comb or %resource, and %flat and %comb are\n"
+	+ "\ttwo layouts of the same table.",
     };
   
   /********************************************************
@@ -4901,6 +6582,8 @@ class CLexGen
       
 	/* Initialize spec structure. */
 	m_spec = new CSpec(this);
+	m_spec.m_out_dir
+	  = new java.io.File(filename).getAbsoluteFile().getParentFile();
 	
 	/* Nfa to dfa converter. */
 	m_nfa2dfa = new CNfa2Dfa();
@@ -4960,6 +6643,12 @@ class CLexGen
 	  {
 	    CError.parse_error(CError.E_EOF,m_input.m_line_number);
 	  }
+	if ((m_spec.m_direct
+	     && (m_spec.m_flat || m_spec.m_comb || m_spec.m_resource))
+	    || (m_spec.m_flat && m_spec.m_comb))
+	  {
+	    CError.parse_error(CError.E_TABLES,m_input.m_line_number);
+	  }
 
 	if (m_spec.m_verbose)
 	  {
@@ -5092,6 +6781,8 @@ class CLexGen
   private final int YYLEX_THROW_CODE = 4;
   private final int EOF_THROW_CODE = 5;
   private final int EOF_VALUE_CODE = 6;
+  private final int RESET_CODE = 7;
+  private final int CLOSE_CODE = 8;
 
   /***************************************************************
     Function: packCode
@@ -5115,7 +6806,9 @@ class CLexGen
 			    || EOF_VALUE_CODE == specified
 			    || INIT_THROW_CODE == specified
 			    || YYLEX_THROW_CODE == specified
-			    || EOF_THROW_CODE == specified);
+			    || EOF_THROW_CODE == specified
+			    || RESET_CODE == specified
+			    || CLOSE_CODE == specified);
 	  }
 
 	if (0 != CUtility.charncmp(m_input.m_line,
@@ -5185,6 +6878,14 @@ class CLexGen
 		      case EOF_THROW_CODE:
 			m_spec.m_eof_throw_read = prev_read;
 			break;
+
+		      case RESET_CODE:
+			m_spec.m_reset_read = prev_read;
+			break;
+
+		      case CLOSE_CODE:
+			m_spec.m_close_read = prev_read;
+			break;
 			
 		      default:
 			CError.parse_error(CError.E_INTERNAL,m_input.m_line_number);
@@ -5218,6 +6919,25 @@ class CLexGen
     '\0'
     };
   
+  private char m_byte_dir[] = { 
+    '%', 'b', 'y',
+    't', 'e',
+    '\0'
+    };
+
+  private char m_direct_dir[] = { 
+    '%', 'd', 'i',
+    'r', 'e', 'c',
+    't',
+    '\0'
+    };
+
+  private char m_comb_dir[] = { 
+    '%', 'c', 'o', 
+    'm', 'b',
+    '\0'
+    };
+
   private char m_char_dir[] = { 
     '%', 'c', 'h',
     'a', 'r',
@@ -5242,6 +6962,18 @@ class CLexGen
     '\0'
     };
 
+  private char m_close_code_dir[] = { 
+    '%', 'c', 'l', 
+    'o', 's', 'e',
+    '{', '\0'
+    };
+
+  private char m_close_code_end_dir[] = { 
+    '%', 'c', 'l', 
+    'o', 's', 'e',
+    '}', '\0'
+    };
+
   private char m_implements_dir[] = { 
     '%', 'i', 'm', 'p', 'l', 'e', 'm', 'e', 'n', 't', 's', 
     '\0'
@@ -5280,6 +7012,12 @@ class CLexGen
     '\0'
     };
 
+  private char m_flat_dir[] = { 
+    '%', 'f', 'l', 
+    'a', 't',
+    '\0'
+    };
+
   private char m_unicode_dir[] = { 
     '%', 'u', 'n', 
     'i', 'c', 'o',
@@ -5409,6 +7147,25 @@ class CLexGen
     'b', 'l', 'i', 
     'c', '\0'
     };
+
+  private char m_resource_dir[] = { 
+    '%', 'r', 'e',
+    's', 'o', 'u', 
+    'r', 'c', 'e',
+    '\0'
+    };
+
+  private char m_reset_code_dir[] = { 
+    '%', 'r', 'e',
+    's', 'e', 't',
+    '{', '\0'
+    };
+
+  private char m_reset_code_end_dir[] = { 
+    '%', 'r', 'e',
+    's', 'e', 't',
+    '}', '\0'
+    };
   
   /***************************************************************
     Function: userDeclare
@@ -5497,6 +7254,24 @@ class CLexGen
 					 m_input.m_line_number);
 		      break;
 
+		    case 'b':
+		      if (0 == CUtility.charncmp(m_input.m_line,
+						 0,
+						 m_byte_dir,
+						 0,
+						 m_byte_dir.length - 1))
+			{
+			  /* Scan raw UTF-8 bytes instead of characters. */
+			  m_input.m_line_index = m_byte_dir.length;
+			  m_spec.m_byte_mode = true;
+			  break;
+			}
+
+		      /* Bad directive. */
+		      CError.parse_error(CError.E_DIRECT,
+					 m_input.m_line_number);
+		      break;
+
 		    case 'c':
 		      if (0 == CUtility.charncmp(m_input.m_line,
 						 0,
@@ -5537,12 +7312,56 @@ class CLexGen
 			      "java_cup.runtime.Symbol".toCharArray();
 			  break;
 			}
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_comb_dir,
+						      0,
+						      m_comb_dir.length - 1))
+			{
+			  /* Emit comb-compressed transition tables. */
+			  m_input.m_line_index = m_comb_dir.length;
+			  m_spec.m_comb = true;
+			  break;
+			}
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_close_code_dir,
+						      0,
+						      m_close_code_dir.length - 1))
+			{
+			  /* Code run first by close. */
+			  m_spec.m_close_code = packCode(m_close_code_dir,
+							 m_close_code_end_dir,
+							 m_spec.m_close_code,
+							 m_spec.m_close_read,
+							 CLOSE_CODE);
+			  break;
+			}
 	      
 		      /* Bad directive. */
 		      CError.parse_error(CError.E_DIRECT,
 					 m_input.m_line_number);
 		      break;
 		      
+		    case 'd':
+		      if (0 == CUtility.charncmp(m_input.m_line,
+						 0,
+						 m_direct_dir,
+						 0,
+						 m_direct_dir.length - 1))
+			{
+			  /* Emit a direct-coded matcher instead of
+			     the transition tables. */
+			  m_input.m_line_index = m_direct_dir.length;
+			  m_spec.m_direct = true;
+			  break;
+			}
+
+		      /* Bad directive. */
+		      CError.parse_error(CError.E_DIRECT,
+					 m_input.m_line_number);
+		      break;
+
 		    case 'e':
 		      if (0 == CUtility.charncmp(m_input.m_line,
 						 0,
@@ -5611,6 +7430,17 @@ class CLexGen
 			  m_spec.m_dtrans_ncols = CUtility.MAX_EIGHT_BIT + 1;
 			  break;
 			}
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_flat_dir,
+						      0,
+						      m_flat_dir.length - 1))
+			{
+			  /* Emit yy_nxt as one int[] of rows. */
+			  m_input.m_line_index = m_flat_dir.length;
+			  m_spec.m_flat = true;
+			  break;
+			}
 
 		      /* Bad directive. */
 		      CError.parse_error(CError.E_DIRECT,
@@ -5747,6 +7577,38 @@ class CLexGen
 					 m_input.m_line_number);
 		      break;
 
+		    case 'r':
+		      if (0 == CUtility.charncmp(m_input.m_line,
+						 0,
+						 m_resource_dir,
+						 0,
+						 m_resource_dir.length - 1))
+			{
+			  /* Write the tables to a resource file. */
+			  m_input.m_line_index = m_resource_dir.length;
+			  m_spec.m_resource = true;
+			  break;
+			}
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_reset_code_dir,
+						      0,
+						      m_reset_code_dir.length - 1))
+			{
+			  /* Code run by reset; %init is constructor-only. */
+			  m_spec.m_reset_code = packCode(m_reset_code_dir,
+							 m_reset_code_end_dir,
+							 m_spec.m_reset_code,
+							 m_spec.m_reset_read,
+							 RESET_CODE);
+			  break;
+			}
+
+		      /* Bad directive. */
+		      CError.parse_error(CError.E_DIRECT,
+					 m_input.m_line_number);
+		      break;
+
 		    case 's':
 		      if (0 == CUtility.charncmp(m_input.m_line,
 						 0,
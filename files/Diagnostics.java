@@ -0,0 +1,174 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Diagnostics
+ *
+ * A scanner's errors and warnings, recorded as (line, column, code,
+ * argument) int records rather than as formatted text, so that input full
+ * of bad characters costs a few array stores per problem.  Text is only
+ * made when the records are read back with messages() or written out by
+ * flush().
+ *
+ * At most limit records are kept; problems past that are only counted,
+ * and reported by a closing "N more errors" summary.  If an output stream
+ * is given, the records are written to it in one batch whenever FLUSH_AT
+ * of them have piled up, when the limit is reached, and when flush() is
+ * called, and then forgotten.  A scanner flushes its own at EOF and when
+ * it is reset or closed; one that is dropped part way through its input
+ * without close() may keep up to FLUSH_AT - 1 records unwritten.
+ *
+ * Not thread-safe; each scanner has its own.
+ */
+class Diagnostics {
+    // codes
+    static final int BAD_ESCAPE = 0;              // string literal
+    static final int UNTERMINATED = 1;            // string literal
+    static final int UNTERMINATED_BAD_ESCAPE = 2; // string literal
+    static final int ILLEGAL_CHAR = 3;            // argument is the char
+    static final int INT_TOO_LARGE = 4;           // warning
+
+    private static final String[] TEXT = {
+        "string literal with bad escaped character ignored",
+        "unterminated string literal ignored",
+        "unterminated string literal with bad escaped character ignored",
+        "ignoring illegal character: ",
+        "integer literal too large; using max value",
+    };
+
+    // Record i occupies records[i*FIELDS .. i*FIELDS+FIELDS).
+    private static final int LINE = 0, COLUMN = 1, CODE = 2, ARG = 3,
+                             FIELDS = 4;
+
+    // How many records are written to out at a time.
+    static final int FLUSH_AT = 1024;
+
+    private final int limit;
+    private final PrintStream out;
+    private int[] records = new int[16 * FIELDS];
+    private int size;          // records held
+    private int kept;          // records accepted, held or already written
+    private int moreErrors, moreWarnings;
+
+    /**
+     * Keeps every record, writing none.
+     */
+    Diagnostics() {
+        this(Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @param limit how many records to keep; later ones are only counted
+     * @param out where flush() writes, or null to only keep the records
+     */
+    Diagnostics(int limit, PrintStream out) {
+        this.limit = limit;
+        this.out = out;
+    }
+
+    /**
+     * Records a problem with code at line and column.
+     * @param arg the char for ILLEGAL_CHAR, otherwise ignored
+     */
+    void report(int code, int line, int column, int arg) {
+        if (kept == limit) {
+            if (isWarning(code))
+                moreWarnings++;
+            else
+                moreErrors++;
+            return;
+        }
+        if (size * FIELDS == records.length)
+            records = Arrays.copyOf(records, records.length * 2);
+        int at = size * FIELDS;
+        records[at + LINE] = line;
+        records[at + COLUMN] = column;
+        records[at + CODE] = code;
+        records[at + ARG] = arg;
+        size++;
+        kept++;
+        if (out != null && (size == FLUSH_AT || kept == limit))
+            write(false);
+    }
+
+    static boolean isWarning(int code) {
+        return code == INT_TOO_LARGE;
+    }
+
+    /**
+     * @return the number of records held, which does not count those
+     *         already written or those past the limit
+     */
+    int size() {
+        return size;
+    }
+
+    int line(int i) { return records[i * FIELDS + LINE]; }
+    int column(int i) { return records[i * FIELDS + COLUMN]; }
+    int code(int i) { return records[i * FIELDS + CODE]; }
+    int arg(int i) { return records[i * FIELDS + ARG]; }
+
+    /**
+     * @return the number of problems past the limit, which were not kept
+     */
+    int dropped() {
+        return moreErrors + moreWarnings;
+    }
+
+    /**
+     * @return record i as text, in ErrMsg's format
+     */
+    String message(int i) {
+        String text = TEXT[code(i)];
+        if (code(i) == ILLEGAL_CHAR)
+            text += (char) arg(i);
+        return isWarning(code(i))
+               ? ErrMsg.warnText(line(i), column(i), text)
+               : ErrMsg.fatalText(line(i), column(i), text);
+    }
+
+    /**
+     * @return the held records as text, followed by the summary of any
+     *         that were dropped
+     */
+    List<String> messages() {
+        List<String> result = new ArrayList<>(size + 2);
+        for (int i = 0; i < size; i++)
+            result.add(message(i));
+        if (moreErrors > 0)
+            result.add(moreErrors + " more errors");
+        if (moreWarnings > 0)
+            result.add(moreWarnings + " more warnings");
+        return result;
+    }
+
+    /**
+     * Writes the held records and the summary of dropped ones to the
+     * output stream in one batch, then forgets them.  Does nothing if
+     * there is no output stream.
+     */
+    void flush() {
+        if (out != null)
+            write(true);
+    }
+
+    private void write(boolean summary) {
+        StringBuilder sb = new StringBuilder(size * 48);
+        for (int i = 0; i < size; i++)
+            sb.append(message(i)).append(System.lineSeparator());
+        if (summary) {
+            if (moreErrors > 0)
+                sb.append(moreErrors).append(" more errors")
+                  .append(System.lineSeparator());
+            if (moreWarnings > 0)
+                sb.append(moreWarnings).append(" more warnings")
+                  .append(System.lineSeparator());
+            moreErrors = moreWarnings = 0;
+        }
+        if (sb.length() > 0) {
+            out.print(sb);
+            out.flush();
+        }
+        size = 0;
+    }
+}
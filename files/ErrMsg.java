@@ -2,6 +2,7 @@
  * ErrMsg
  *
  * This class is used to generate warning and fatal error messages.
+ * Scanners do not print theirs one by one; see Diagnostics.
  */
 class ErrMsg {
     /**
@@ -11,7 +12,14 @@ class ErrMsg {
      * @param msg associated message for error
      */
     static void fatal(int lineNum, int charNum, String msg) {
-        System.err.println(lineNum + ":" + charNum + " ***ERROR*** " + msg);
+        System.err.println(fatalText(lineNum, charNum, msg));
+    }
+
+    /**
+     * @return the text fatal() would print for the same arguments
+     */
+    static String fatalText(int lineNum, int charNum, String msg) {
+        return lineNum + ":" + charNum + " ***ERROR*** " + msg;
     }
 
     /**
@@ -21,6 +29,13 @@ class ErrMsg {
      * @param msg associated message for warning
      */
     static void warn(int lineNum, int charNum, String msg) {
-        System.err.println(lineNum + ":" + charNum + " ***WARNING*** " + msg);
+        System.err.println(warnText(lineNum, charNum, msg));
+    }
+
+    /**
+     * @return the text warn() would print for the same arguments
+     */
+    static String warnText(int lineNum, int charNum, String msg) {
+        return lineNum + ":" + charNum + " ***WARNING*** " + msg;
     }
 }
@@ -0,0 +1,143 @@
+/**
+ * IdTable
+ *
+ * An identifier symbol table.  Each distinct identifier is given a dense
+ * int id (0, 1, 2, ...) and one canonical String.  Lookups hash the
+ * characters where they lie, e.g. in the scanner's input buffer, so an
+ * identifier that has been seen before costs no allocation.
+ *
+ * The characters of every identifier are kept back to back in a single
+ * char arena; the hash table itself is open addressing with linear
+ * probing over an int array of ids.
+ *
+ * A table may be shared by several scanners (and handed on to later
+ * compiler phases) but is not thread-safe.
+ */
+class IdTable {
+    private static final int EMPTY = -1;
+
+    private char[] arena = new char[1024];
+    private int arenaUsed;
+    private int[] starts = new int[64];    // id -> first char in arena
+    private int[] lengths = new int[64];   // id -> number of chars
+    private int[] hashes = new int[64];    // id -> hash of its chars
+    private String[] names = new String[64];
+    private int size;
+    private int[] slots;                   // open-addressed ids, or EMPTY
+    private char[] scratch = new char[64]; // a byte[] identifier, widened
+
+    IdTable() {
+        slots = new int[128];
+        java.util.Arrays.fill(slots, EMPTY);
+    }
+
+    /**
+     * Returns the id of the identifier buf[start..start+len), adding it to
+     * the table if it is new.
+     */
+    int intern(char[] buf, int start, int len) {
+        int hash = hash(buf, start, len);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int id;
+        while ((id = slots[slot]) != EMPTY) {
+            if (hashes[id] == hash && matches(id, buf, start, len))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        return add(buf, start, len, hash, slot);
+    }
+
+    /**
+     * Returns the id of the ASCII identifier buf[start..start+len), as in
+     * a %byte scanner's buffer, adding it to the table if it is new.
+     */
+    int intern(byte[] buf, int start, int len) {
+        if (scratch.length < len)
+            scratch = new char[Math.max(2 * scratch.length, len)];
+        for (int i = 0; i < len; i++)
+            scratch[i] = (char) buf[start + i];
+        return intern(scratch, 0, len);
+    }
+
+    /**
+     * Returns the id of name, adding it to the table if it is new.
+     */
+    int intern(CharSequence name) {
+        char[] chars = name.toString().toCharArray();
+        return intern(chars, 0, chars.length);
+    }
+
+    /**
+     * @return the canonical String for id
+     */
+    String name(int id) {
+        if (id < 0 || id >= size)
+            throw new IndexOutOfBoundsException("no identifier " + id);
+        return names[id];
+    }
+
+    /**
+     * @return the number of distinct identifiers in the table
+     */
+    int size() {
+        return size;
+    }
+
+    private boolean matches(int id, char[] buf, int start, int len) {
+        if (lengths[id] != len)
+            return false;
+        int at = starts[id];
+        for (int i = 0; i < len; i++) {
+            if (arena[at + i] != buf[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    private int add(char[] buf, int start, int len, int hash, int slot) {
+        if (arenaUsed + len > arena.length)
+            arena = java.util.Arrays.copyOf(arena,
+                Math.max(2 * arena.length, arenaUsed + len));
+        if (size == starts.length) {
+            int capacity = 2 * size;
+            starts = java.util.Arrays.copyOf(starts, capacity);
+            lengths = java.util.Arrays.copyOf(lengths, capacity);
+            hashes = java.util.Arrays.copyOf(hashes, capacity);
+            names = java.util.Arrays.copyOf(names, capacity);
+        }
+        int id = size++;
+        System.arraycopy(buf, start, arena, arenaUsed, len);
+        starts[id] = arenaUsed;
+        lengths[id] = len;
+        hashes[id] = hash;
+        names[id] = new String(arena, arenaUsed, len);
+        arenaUsed += len;
+        slots[slot] = id;
+        // keep the load factor at or below one half
+        if (2 * size > slots.length)
+            rehash();
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        java.util.Arrays.fill(slots, EMPTY);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            slots[slot] = id;
+        }
+    }
+
+    // FNV-1a, with a final mix so that the low bits used for the slot
+    // index depend on every character
+    private static int hash(char[] buf, int start, int len) {
+        int h = 0x811c9dc5;
+        for (int i = start; i < start + len; i++)
+            h = (h ^ buf[i]) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,349 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * IncrementalLexer
+ *
+ * Keeps a moo document and its tokens up to date as the document is
+ * edited, for an editor that would otherwise rescan the whole buffer on
+ * every keystroke.
+ *
+ * No moo token, comment or string literal spans a newline, so every line
+ * starts in the YYINITIAL state at column 1.  An edit can therefore only
+ * change the tokens on the lines it touches: the lines from the start of
+ * the line holding the edit to the first newline after the inserted text.
+ * Those lines are rescanned on their own; the old tokens after them are
+ * the same tokens as before, moved by the size of the edit.
+ *
+ * Both the text and the tokens are kept in gap buffers whose gap sits at
+ * the last edit.  Tokens after the gap record their offset and line
+ * counted back from the end of the document, so they need no updating
+ * when an edit before them changes its length.  An edit costs time for
+ * the lines it touches plus the distance from the previous edit, but
+ * nothing for the size of the document.
+ *
+ * Tokens are described by the same fields as in a PackedTokens batch and
+ * kept in document order.  Identifier values are ids in idTable().
+ */
+class IncrementalLexer {
+    private final GapText text;
+    private final IdTable ids = new IdTable();
+    // line ends in the whole text; back tokens' lines are counted from it
+    private int lineEnds;
+
+    // Token i before the gap occupies tokens[i*FIELDS .. i*FIELDS+FIELDS),
+    // one int per field.  Tokens after the gap hold OFFSET as
+    // text.length() - offset and LINE as lineEnds - line instead.
+    private static final int KIND = 0, LINE = 1, COLUMN = 2, OFFSET = 3,
+                             LENGTH = 4, VALUE = 5, FIELDS = 6;
+    private int[] tokens = new int[256 * FIELDS];
+    private int gapStart = 0;    // first token slot of the gap
+    private int gapEnd = 256;    // first token slot after the gap
+
+    // what the last edit did; see changedFrom()
+    private int changedFrom, removed, added, rescanned;
+
+    // Reused for every rescan; its size only limits how many tokens are
+    // copied over at a time.
+    private final PackedTokens batch = new PackedTokens(256);
+
+    // Problems in the text are not reported; this counts and drops them.
+    private final Diagnostics quiet = new Diagnostics(0, null);
+
+    IncrementalLexer(CharSequence initial) throws IOException {
+        text = new GapText(initial);
+        lineEnds = lineEnds(text, 0, text.length());
+        rescan(0, text.length(), 1);
+        changedFrom = 0;
+        rescanned = text.length();
+    }
+
+    /**
+     * Replaces deletedLength characters at offset with inserted and
+     * brings the tokens up to date.
+     */
+    void edit(int offset, int deletedLength, CharSequence inserted)
+            throws IOException {
+        if (offset < 0 || deletedLength < 0
+            || offset + deletedLength > text.length())
+            throw new IndexOutOfBoundsException("bad edit at " + offset);
+
+        // the damaged lines: from the start of the edit's line up to and
+        // including the first line end after the edit; a \r just before
+        // the edit that the edit puts a \n after joins its line as well
+        int end = offset + deletedLength;
+        char next = inserted.length() > 0 ? inserted.charAt(0)
+                  : end < text.length() ? text.charAt(end) : 0;
+        int from = offset;
+        if (next == '\n' && from > 0 && text.charAt(from - 1) == '\r')
+            from--;
+        while (!startsLine(text, from))
+            from--;
+        int oldTo = end;
+        while (oldTo < text.length()) {
+            char c = text.charAt(oldTo++);
+            if (c == '\n')
+                break;
+            if (c == '\r') {
+                if (oldTo < text.length() && text.charAt(oldTo) == '\n')
+                    oldTo++;
+                break;
+            }
+        }
+
+        // drop the old tokens on the damaged lines, leaving the gap in
+        // their place, while all offsets still refer to the old text
+        int first = firstAtOrAfter(from);
+        int last = firstAtOrAfter(oldTo);
+        moveGap(first);
+        gapEnd += last - first;
+
+        // recount line ends from one character before the edit to one
+        // after it, as the edit can join a \r and a \n at either end into
+        // one line end or split them
+        int lo = Math.max(offset - 1, 0);
+        int hi = Math.min(offset + deletedLength + 1, text.length());
+        int before = lineEnds(text, lo, hi);
+        text.replace(offset, deletedLength, inserted);
+        lineEnds += lineEnds(text, lo, hi + inserted.length() - deletedLength)
+                    - before;
+        int to = oldTo + inserted.length() - deletedLength;
+        rescan(from, to, lineOf(from));
+
+        changedFrom = first;
+        removed = last - first;
+        rescanned = to - from;
+    }
+
+    // Scans text[from, to), which starts a line, into the gap.
+    private void rescan(int from, int to, int firstLine) throws IOException {
+        Yylex lexer = new Yylex(text.subSequence(from, to));
+        lexer.useIdTable(ids);
+        lexer.startAtLine(firstLine);
+        lexer.useDiagnostics(quiet);
+        added = 0;
+        int n;
+        while ((n = lexer.next_packed(batch)) > 0) {
+            if (gapEnd - gapStart < n)
+                grow(n);
+            for (int i = 0; i < n; i++) {
+                int at = (gapStart + i) * FIELDS;
+                tokens[at + KIND] = batch.kind[i];
+                tokens[at + LINE] = batch.line[i];
+                tokens[at + COLUMN] = batch.column[i];
+                tokens[at + OFFSET] = (int) batch.offset[i] + from;
+                tokens[at + LENGTH] = batch.length[i];
+                tokens[at + VALUE] = batch.value[i];
+            }
+            gapStart += n;
+            added += n;
+        }
+    }
+
+    // Moves the gap to just before token index, switching the tokens it
+    // passes between absolute and end-relative positions.
+    private void moveGap(int index) {
+        int length = text.length();
+        while (gapStart > index) {
+            gapStart--;
+            gapEnd--;
+            int from = gapStart * FIELDS, at = gapEnd * FIELDS;
+            System.arraycopy(tokens, from, tokens, at, FIELDS);
+            tokens[at + OFFSET] = length - tokens[at + OFFSET];
+            tokens[at + LINE] = lineEnds - tokens[at + LINE];
+        }
+        while (gapStart < index) {
+            int from = gapEnd * FIELDS, at = gapStart * FIELDS;
+            System.arraycopy(tokens, from, tokens, at, FIELDS);
+            tokens[at + OFFSET] = length - tokens[at + OFFSET];
+            tokens[at + LINE] = lineEnds - tokens[at + LINE];
+            gapStart++;
+            gapEnd++;
+        }
+    }
+
+    // Makes room in the gap for at least n more tokens.
+    private void grow(int n) {
+        int slots = tokens.length / FIELDS;
+        int back = slots - gapEnd;
+        int newSlots = Math.max(slots * 2, gapStart + n + back);
+        int[] bigger = new int[newSlots * FIELDS];
+        System.arraycopy(tokens, 0, bigger, 0, gapStart * FIELDS);
+        System.arraycopy(tokens, gapEnd * FIELDS,
+                         bigger, (newSlots - back) * FIELDS, back * FIELDS);
+        tokens = bigger;
+        gapEnd = newSlots - back;
+    }
+
+    // Returns the index of the first token starting at or after pos.
+    private int firstAtOrAfter(int pos) {
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (offset(mid) < pos)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // Returns the line number of pos, which starts a line just after the
+    // gap, counting on from the last token before the gap.
+    private int lineOf(int pos) {
+        if (gapStart == 0)
+            return 1 + lineEnds(text, 0, pos);
+        int at = (gapStart - 1) * FIELDS;
+        return tokens[at + LINE] + lineEnds(text, tokens[at + OFFSET], pos);
+    }
+
+    // Whether a line starts at s[i]: at the start, after a \n, or after
+    // a \r that is not the first half of a \r\n.
+    private static boolean startsLine(CharSequence s, int i) {
+        if (i == 0)
+            return true;
+        char c = s.charAt(i - 1);
+        return c == '\n'
+            || (c == '\r' && (i == s.length() || s.charAt(i) != '\n'));
+    }
+
+    // Counts line ends in s[from, to) the way the scanner does: \r, \n
+    // and \r\n each end one line.
+    private static int lineEnds(CharSequence s, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '\r' || (c == '\n' && (i == 0 || s.charAt(i - 1) != '\r')))
+                lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * @return the document as it stands after the last edit
+     */
+    CharSequence text() {
+        return text;
+    }
+
+    /**
+     * @return the table that identifier values are ids in
+     */
+    IdTable idTable() {
+        return ids;
+    }
+
+    /**
+     * @return the number of tokens in the document, not counting EOF
+     */
+    int size() {
+        return tokens.length / FIELDS - (gapEnd - gapStart);
+    }
+
+    // Returns where field f of token i is stored.
+    private int at(int i, int f) {
+        return (i < gapStart ? i : i + gapEnd - gapStart) * FIELDS + f;
+    }
+
+    int kind(int i) { return tokens[at(i, KIND)]; }
+    int column(int i) { return tokens[at(i, COLUMN)]; }
+    int length(int i) { return tokens[at(i, LENGTH)]; }
+    int value(int i) { return tokens[at(i, VALUE)]; }
+
+    int line(int i) {
+        int v = tokens[at(i, LINE)];
+        return i < gapStart ? v : lineEnds - v;
+    }
+
+    int offset(int i) {
+        int v = tokens[at(i, OFFSET)];
+        return i < gapStart ? v : text.length() - v;
+    }
+
+    /**
+     * @return the index of the first token the last edit replaced; the
+     *         removed() tokens from there were replaced by added() new
+     *         ones, and every other token is unchanged apart from its
+     *         offset and line
+     */
+    int changedFrom() {
+        return changedFrom;
+    }
+
+    int removed() {
+        return removed;
+    }
+
+    int added() {
+        return added;
+    }
+
+    /**
+     * @return how many characters the last edit made the scanner read
+     */
+    int rescanned() {
+        return rescanned;
+    }
+
+    /**
+     * The document's characters, with a gap at the last edit so that
+     * edits close together move little text.
+     */
+    private static final class GapText implements CharSequence {
+        private char[] buf;
+        private int gapStart, gapEnd;
+
+        GapText(CharSequence initial) {
+            buf = new char[initial.length() + 1024];
+            initial.toString().getChars(0, initial.length(), buf, 0);
+            gapStart = initial.length();
+            gapEnd = buf.length;
+        }
+
+        void replace(int offset, int deletedLength, CharSequence inserted) {
+            if (offset < gapStart)
+                System.arraycopy(buf, offset, buf,
+                                 gapEnd - (gapStart - offset), gapStart - offset);
+            else
+                System.arraycopy(buf, gapEnd, buf, gapStart, offset - gapStart);
+            gapEnd += offset - gapStart;
+            gapStart = offset;
+            gapEnd += deletedLength;
+            int n = inserted.length();
+            if (gapEnd - gapStart < n) {
+                int back = buf.length - gapEnd;
+                char[] bigger = new char[Math.max(buf.length * 2,
+                                                  gapStart + n + back + 1024)];
+                System.arraycopy(buf, 0, bigger, 0, gapStart);
+                System.arraycopy(buf, gapEnd, bigger, bigger.length - back, back);
+                buf = bigger;
+                gapEnd = bigger.length - back;
+            }
+            for (int i = 0; i < n; i++)
+                buf[gapStart++] = inserted.charAt(i);
+        }
+
+        public int length() {
+            return buf.length - (gapEnd - gapStart);
+        }
+
+        public char charAt(int i) {
+            return buf[i < gapStart ? i : i + gapEnd - gapStart];
+        }
+
+        public String subSequence(int from, int to) {
+            if (to <= gapStart)
+                return new String(buf, from, to - from);
+            if (from >= gapStart)
+                return new String(buf, from + gapEnd - gapStart, to - from);
+            return new StringBuilder(to - from)
+                .append(buf, from, gapStart - from)
+                .append(buf, gapEnd, to - gapStart)
+                .toString();
+        }
+
+        public String toString() {
+            return subSequence(0, length());
+        }
+    }
+}
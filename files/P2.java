@@ -22,7 +22,6 @@ public class P2 {
             // are test methods.
             if (method.getDeclaringClass() == P2.class
                     && !method.getName().equals("main")) {
-                CharNum.num = 1;
                 try {
                     boolean passed = (boolean) method.invoke(p2);
                     if (!passed) {
@@ -51,7 +50,7 @@ public class P2 {
         if ((Integer.parseInt(in) != t.intVal) ||
             (t.linenum != 1) || (t.charnum != 1))
             return false;
-        if (CharNum.num != (in.length() + 1))
+        if (scanner.charNum() != (in.length() + 1))
             return false;
         return true;
     }
@@ -68,11 +67,35 @@ public class P2 {
         if ((Integer.MAX_VALUE != t.intVal) ||
             (t.linenum != 1) || (t.charnum != 1))
             return false;
-        if (CharNum.num != (in.length() + 1))
+        if (scanner.charNum() != (in.length() + 1))
             return false;
         return true;
     }
 
+    public boolean testIntLiteralWithLeadingZeros() throws IOException {
+        String in = "0000000000002147483647";
+        Yylex scanner = new Yylex(new StringReader(in));
+        Symbol token = scanner.next_token();
+        IntLitTokenVal t = (IntLitTokenVal)(token.value);
+        return token.sym == sym.INTLITERAL
+                && t.intVal == Integer.MAX_VALUE
+                && scanner.charNum() == in.length() + 1;
+    }
+
+    public boolean testIntLiteralsAroundOverflow() throws IOException {
+        String in = "0 7 2147483639 2147483646 2147483650 21474836470 99999999999";
+        int[] expected = { 0, 7, 2147483639, 2147483646, Integer.MAX_VALUE,
+                           Integer.MAX_VALUE, Integer.MAX_VALUE };
+        Yylex scanner = new Yylex(new StringReader(in));
+        for (int value : expected) {
+            Symbol token = scanner.next_token();
+            if (token.sym != sym.INTLITERAL
+                || ((IntLitTokenVal) token.value).intVal != value)
+                return false;
+        }
+        return scanner.next_token().sym == sym.EOF;
+    }
+
     public boolean testValidIdentifierThatStartsWithLetter() throws IOException {
         String test = "my_Identifier35";
         try (StringReader reader = new StringReader(test)) {
@@ -80,8 +103,8 @@ public class P2 {
             Symbol token = lexer.next_token();
             IdTokenVal value = ((IdTokenVal) token.value);
             return  token.sym == sym.ID
-                    && CharNum.num == test.length() + 1
-                    && value.idVal.equals(test)
+                    && lexer.charNum() == test.length() + 1
+                    && value.idVal.toString().equals(test)
                     && value.linenum == 1
                     && value.charnum == 1;
         }
@@ -94,8 +117,8 @@ public class P2 {
             Symbol token = lexer.next_token();
             IdTokenVal value = ((IdTokenVal) token.value);
             return  token.sym == sym.ID
-                    && CharNum.num == test.length() + 1
-                    && value.idVal.equals(test)
+                    && lexer.charNum() == test.length() + 1
+                    && value.idVal.toString().equals(test)
                     && value.linenum == 1
                     && value.charnum == 1;
         }
@@ -108,8 +131,8 @@ public class P2 {
             Symbol token = lexer.next_token();
             IdTokenVal value = ((IdTokenVal) token.value);
             return  token.sym == sym.ID
-                    && CharNum.num == test.length() + 1
-                    && value.idVal.equals(test)
+                    && lexer.charNum() == test.length() + 1
+                    && value.idVal.toString().equals(test)
                     && value.linenum == 1
                     && value.charnum == 1;
         }
@@ -123,19 +146,18 @@ public class P2 {
             Symbol token = lexer.next_token();
             IntLitTokenVal intLitVal = ((IntLitTokenVal) token.value);
             if (token.sym != sym.INTLITERAL
-                || CharNum.num != test.substring(0,2).length() + 1
+                || lexer.charNum() != test.substring(0,2).length() + 1
                 || (intLitVal.intVal != Integer.parseInt(test.substring(0,2)))
                 || intLitVal.linenum != 1
                 || intLitVal.charnum != 1)
                 return false;
-            CharNum.num = 1;
             token = lexer.next_token();
             IdTokenVal idVal = ((IdTokenVal) token.value);
             return  token.sym == sym.ID
-                    && CharNum.num == test.substring(2).length() + 1
-                    && idVal.idVal.equals(test.substring(2))
+                    && lexer.charNum() == test.length() + 1
+                    && idVal.idVal.toString().equals(test.substring(2))
                     && idVal.linenum == 1
-                    && idVal.charnum == 1;
+                    && idVal.charnum == 3;
         }
     }
 
@@ -155,8 +177,8 @@ public class P2 {
             Symbol token = lexer.next_token();
             IdTokenVal value = ((IdTokenVal) token.value);
             return  token.sym == sym.ID
-                    && CharNum.num == test.substring(0,16).length() + 1
-                    && value.idVal.equals(test.substring(0,16))
+                    && lexer.charNum() == test.substring(0,16).length() + 1
+                    && value.idVal.toString().equals(test.substring(0,16))
                     && value.linenum == 1
                     && value.charnum == 1;
         }
@@ -169,15 +191,15 @@ public class P2 {
             Symbol token = lexer.next_token();
             IdTokenVal value = ((IdTokenVal) token.value);
             if (token.sym != sym.ID
-                || CharNum.num != test.substring(0,16).length() + 1
-                || !value.idVal.equals(test.substring(0,16))
+                || lexer.charNum() != test.substring(0,16).length() + 1
+                || !value.idVal.toString().equals(test.substring(0,16))
                 || value.linenum != 1
                 || value.charnum != 1)
                 return false;
             token = lexer.next_token();
             IntLitTokenVal intLitVal = ((IntLitTokenVal) token.value);
             return  token.sym == sym.INTLITERAL
-                    && CharNum.num == test.length() + 1
+                    && lexer.charNum() == test.length() + 1
                     && intLitVal.intVal == Integer.parseInt(test.substring(21))
                     && intLitVal.linenum == 1
                     && intLitVal.charnum == 22;
@@ -343,6 +365,1164 @@ public class P2 {
         return true;
     }
 
+    public boolean mappedFileMatchesReader() throws IOException {
+        List<String> expected;
+        try (FileReader reader = new FileReader("allTokens.in")) {
+            expected = describeAll(new Yylex(reader));
+        }
+        List<String> mapped = describeAll(
+            new Yylex(java.nio.file.Paths.get("allTokens.in")));
+        return expected.size() > 1 && expected.equals(mapped);
+    }
+
+    public boolean mappedEmptyFileIsEOF() throws IOException {
+        File empty = File.createTempFile("moo", ".in");
+        try {
+            Yylex lexer = new Yylex(empty.toPath());
+            return lexer.next_token().sym == sym.EOF;
+        } finally {
+            empty.delete();
+        }
+    }
+
+    /**
+     * A supplementary character needs two chars; when a read has room for
+     * only one, it must come out as its surrogate pair split across two
+     * reads, not stall or end the input.  A mapped file is read into a
+     * buffer of its own size up to YY_PRESIZE_MAX chars, so the pair is
+     * put just past that, behind a run of blanks.
+     */
+    public boolean surrogatePairSplitAcrossReads() throws Exception {
+        java.lang.reflect.Field max = Yylex.class.getDeclaredField("YY_PRESIZE_MAX");
+        max.setAccessible(true);
+        int blanks = max.getInt(null) - 2;
+        File file = File.createTempFile("moo", ".in");
+        try {
+            byte[] text = new byte[blanks + 7];
+            java.util.Arrays.fill(text, 0, blanks, (byte) ' ');
+            System.arraycopy("\"\uD83D\uDE00\"".getBytes("UTF-8"), 0,
+                             text, blanks, 6);
+            text[blanks + 6] = '\n';
+            java.nio.file.Files.write(file.toPath(), text);
+            try (Yylex lexer = new Yylex(file.toPath())) {
+                Symbol token = lexer.next_token();
+                return token.sym == sym.STRINGLITERAL
+                    && ((StrLitTokenVal) token.value).strVal
+                           .equals("\"\uD83D\uDE00\"")
+                    && lexer.next_token().sym == sym.EOF;
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A file too big to map in one go keeps its channel open while it is
+     * scanned; close() must release it even though the scan never ended.
+     * The file is sparse, so it takes no room.
+     */
+    public boolean closeReleasesUnfinishedScan() throws Exception {
+        File file = File.createTempFile("moo", ".in");
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(3L << 30);
+            }
+            Yylex lexer = new Yylex(file.toPath());
+            java.lang.reflect.Field f = Yylex.class.getDeclaredField("yy_channel");
+            f.setAccessible(true);
+            java.nio.channels.FileChannel channel =
+                (java.nio.channels.FileChannel) f.get(lexer);
+            boolean openWhileScanning = channel != null && channel.isOpen();
+            lexer.close();
+            return openWhileScanning && !channel.isOpen()
+                && lexer.next_token().sym == sym.EOF;
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * The %byte scanner built by make variants/byte/Yylex.class must find
+     * the same tokens, values, positions and problems as the default one
+     * in text that is not ASCII, supplementary characters included, and
+     * count columns in chars like it.  Its classes have the same names
+     * as the default scanner's, so it gets a class loader of its own.
+     */
+    public boolean byteScannerMatchesOnNonAscii() throws Exception {
+        String in = "x = \"h\u00e9llo \u4e16\u754c \uD83D\uDE00\";\n"
+            + "# \u00e9 \uD83D\uDE00 comment\n"
+            + "\u00e9 y\uD83D\uDE00z \u4e16 42 \"\u00e9\\q\"\n"
+            + "cout << \"\uD83D\uDE01 unterminated\n"
+            + "\u00e9 x \"h\u00e9llo\" y \u00b5\uD83D\uDE00 z\n";
+        ClassLoader loader = new java.net.URLClassLoader(new java.net.URL[] {
+            new File("variants/byte/").toURI().toURL(),
+            new File("../deps/").toURI().toURL(),
+            new File(".").toURI().toURL() },
+            ClassLoader.getPlatformClassLoader());
+        List<String> expected = describeByReflection(Yylex.class, in);
+        return expected.size() > 10 && expected.equals(
+            describeByReflection(loader.loadClass("Yylex"), in));
+    }
+
+    /**
+     * A %resource scanner must refuse a tables file that is not the one
+     * generated with it, even one with the right header and size.  The
+     * scanner built by make variants/resource/Yylex.class is copied, with
+     * one table entry changed, and loaded on its own.
+     */
+    public boolean staleTableResourceIsRejected() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("moo");
+        java.nio.file.Path built = java.nio.file.Paths.get("variants/resource");
+        try (java.nio.file.DirectoryStream<java.nio.file.Path> files =
+                 java.nio.file.Files.newDirectoryStream(built, "*.{class,tables}")) {
+            for (java.nio.file.Path f : files)
+                java.nio.file.Files.copy(f, dir.resolve(f.getFileName()));
+        }
+        java.nio.file.Path tables = dir.resolve("Yylex.tables");
+        byte[] bytes = java.nio.file.Files.readAllBytes(tables);
+        bytes[bytes.length - 1] ^= 1;
+        java.nio.file.Files.write(tables, bytes);
+        ClassLoader loader = new java.net.URLClassLoader(new java.net.URL[] {
+            dir.toUri().toURL(),
+            new File("../deps/").toURI().toURL(),
+            new File(".").toURI().toURL() },
+            ClassLoader.getPlatformClassLoader());
+        try {
+            Class.forName("Yylex", true, loader);
+            return false;
+        } catch (Error expected) {
+            return expected.getMessage().equals(
+                "Yylex.tables: not the tables of this scanner");
+        } finally {
+            try (java.nio.file.DirectoryStream<java.nio.file.Path> files =
+                     java.nio.file.Files.newDirectoryStream(dir)) {
+                for (java.nio.file.Path f : files)
+                    java.nio.file.Files.delete(f);
+            }
+            java.nio.file.Files.delete(dir);
+        }
+    }
+
+    /**
+     * JLex must refuse table directives that cannot all hold, rather than
+     * quietly let one win.
+     */
+    public boolean conflictingTableDirectivesAreRejected() throws Exception {
+        String[][] conflicts = {
+            {"%direct", "%resource"}, {"%direct", "%flat"},
+            {"%direct", "%comb"}, {"%flat", "%comb"} };
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("moo");
+        PrintStream stdout = System.out;
+        boolean ok = true;
+        try {
+            for (String[] pair : conflicts) {
+                java.nio.file.Path spec = dir.resolve("t.jlex");
+                java.nio.file.Files.write(spec, java.util.Arrays.asList(
+                    "%%", pair[0], pair[1], "%%", "a { return null; }"));
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                System.setOut(new PrintStream(bytes, true));
+                JLex.Main.main(new String[] { spec.toString() });
+                System.setOut(stdout);
+                ok &= bytes.toString().contains("Conflicting table directives");
+            }
+        } finally {
+            System.setOut(stdout);
+            try (java.nio.file.DirectoryStream<java.nio.file.Path> files =
+                     java.nio.file.Files.newDirectoryStream(dir)) {
+                for (java.nio.file.Path f : files)
+                    java.nio.file.Files.delete(f);
+            }
+            java.nio.file.Files.delete(dir);
+        }
+        return ok;
+    }
+
+    // The tokens and problems of scanner class yylex on in, by reflection
+    // so that it works for a scanner from another class loader.
+    private static List<String> describeByReflection(Class<?> yylex,
+                                                     String in)
+            throws Exception {
+        java.lang.reflect.Constructor<?> make =
+            yylex.getDeclaredConstructor(CharSequence.class);
+        make.setAccessible(true);
+        Object lexer = make.newInstance(in);
+        Class<?> diagnosticsClass =
+            yylex.getClassLoader().loadClass("Diagnostics");
+        java.lang.reflect.Constructor<?> makeDiagnostics =
+            diagnosticsClass.getDeclaredConstructor();
+        makeDiagnostics.setAccessible(true);
+        Object diagnostics = makeDiagnostics.newInstance();
+        Method use = yylex.getDeclaredMethod("useDiagnostics", diagnosticsClass);
+        use.setAccessible(true);
+        use.invoke(lexer, diagnostics);
+        Method next = yylex.getDeclaredMethod("next_token");
+        next.setAccessible(true);
+        List<String> tokens = new ArrayList<>();
+        while (true) {
+            Object token = next.invoke(lexer);
+            int kind = token.getClass().getField("sym").getInt(token);
+            if (kind == sym.EOF)
+                break;
+            Object value = token.getClass().getField("value").get(token);
+            StringBuilder desc = new StringBuilder().append(kind);
+            for (Class<?> c = value.getClass(); c != Object.class;
+                 c = c.getSuperclass()) {
+                for (java.lang.reflect.Field f : c.getDeclaredFields()) {
+                    f.setAccessible(true);
+                    desc.append(' ').append(f.getName()).append('=')
+                        .append(f.get(value));
+                }
+            }
+            tokens.add(desc.toString());
+        }
+        Method messages = diagnosticsClass.getDeclaredMethod("messages");
+        messages.setAccessible(true);
+        for (Object m : (List<?>) messages.invoke(diagnostics))
+            tokens.add(m.toString());
+        return tokens;
+    }
+
+    public boolean charSequenceMatchesReader() throws IOException {
+        String in = new String(java.nio.file.Files.readAllBytes(
+            java.nio.file.Paths.get("allTokens.in")));
+        List<String> expected = describeAll(new Yylex(new StringReader(in)));
+        return expected.equals(describeAll(new Yylex(in)));
+    }
+
+    public boolean tokenLongerThanBufferIsKept() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            sb.append((char) ('a' + i % 26));
+        String id = sb.toString();
+        String test = "# comment\n" + id + " " + id + "\n";
+        try (StringReader reader = new StringReader(test)) {
+            Yylex lexer = new Yylex(reader);
+            IdTokenVal first = (IdTokenVal) lexer.next_token().value;
+            IdTokenVal second = (IdTokenVal) lexer.next_token().value;
+            return first.idVal.toString().equals(id)
+                    && second.idVal.toString().equals(id)
+                    && second.linenum == 2
+                    && second.charnum == id.length() + 2
+                    && lexer.next_token().sym == sym.EOF;
+        }
+    }
+
+    public boolean packedTokensMatchSymbols() throws IOException {
+        String in = new String(java.nio.file.Files.readAllBytes(
+            java.nio.file.Paths.get("allTokens.in")));
+        List<String> expected = describeAll(new Yylex(in));
+        List<String> packed = new ArrayList<>();
+        Yylex lexer = new Yylex(in);
+        PackedTokens batch = new PackedTokens(7);
+        while (lexer.next_packed(batch) > 0) {
+            for (int i = 0; i < batch.count; i++) {
+                String desc = batch.kind[i] + "@" + batch.line[i]
+                    + ":" + batch.column[i];
+                int offset = (int) batch.offset[i];
+                String text = in.substring(offset, offset + batch.length[i]);
+                if (batch.kind[i] == sym.ID
+                    || batch.kind[i] == sym.STRINGLITERAL)
+                    desc += "=" + text;
+                else if (batch.kind[i] == sym.INTLITERAL)
+                    desc += "=" + batch.value[i];
+                packed.add(desc);
+            }
+        }
+        packed.add(String.valueOf(sym.EOF));
+        return expected.equals(packed);
+    }
+
+    /**
+     * next_tokens stops at n, at the batch's capacity, or at the end of
+     * input, whichever comes first, and refuses batches that could only
+     * ever return 0.
+     */
+    public boolean nextTokensBatchLimits() throws IOException {
+        // seven tokens: a b c d e f g
+        Yylex lexer = new Yylex("a b c d e f g");
+        PackedTokens batch = new PackedTokens(4);
+        boolean ok = lexer.next_tokens(batch, 2) == 2
+            && batch.offset[0] == 0 && batch.offset[1] == 2
+            // n larger than the batch: capped at its capacity
+            && lexer.next_tokens(batch, 100) == 4
+            && batch.offset[0] == 4 && batch.offset[3] == 10
+            // only one token left: the batch ends early at EOF
+            && lexer.next_tokens(batch, 3) == 1 && batch.offset[0] == 12
+            && lexer.next_tokens(batch, 3) == 0 && batch.count == 0;
+        for (int n : new int[] {0, -1}) {
+            try {
+                new Yylex("a").next_tokens(batch, n);
+                return false;
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            new Yylex("a").next_packed(new PackedTokens(0));
+            return false;
+        } catch (IllegalArgumentException expected) {
+        }
+        return ok;
+    }
+
+    /**
+     * yychar is an int; packed offsets must carry on past 2^31 characters
+     * rather than wrap.  The scanner is put just short of the limit, as if
+     * it were that far into a mapped file.
+     */
+    public boolean packedOffsetsPassIntRange() throws Exception {
+        Yylex lexer = new Yylex("ab cd\nef");
+        for (String name : new String[] {"yychar", "packedChar"}) {
+            java.lang.reflect.Field f = Yylex.class.getDeclaredField(name);
+            f.setAccessible(true);
+            f.setInt(lexer, Integer.MAX_VALUE - 1);
+        }
+        java.lang.reflect.Field f = Yylex.class.getDeclaredField("packedOffset");
+        f.setAccessible(true);
+        f.setLong(lexer, Integer.MAX_VALUE - 1);
+        PackedTokens batch = new PackedTokens(8);
+        long base = Integer.MAX_VALUE - 1;
+        return lexer.next_packed(batch) == 3
+            && batch.offset[0] == base && batch.offset[1] == base + 3
+            && batch.offset[2] == base + 6;
+    }
+
+    /**
+     * \r and \r\n end a line just as \n does: in code, at the end of a
+     * comment and inside an unterminated string.  Tokens and messages must
+     * come out on the same lines and columns as with \n line ends.
+     */
+    public boolean crAndCrLfEndLines() throws IOException {
+        String text = "x # note%y = \"ab%z // more%\"cd\\%w%";
+        List<String> expected = null;
+        for (String end : new String[] {"\n", "\r", "\r\n"}) {
+            Yylex lexer = new Yylex(text.replace("%", end));
+            Diagnostics kept = new Diagnostics(10, null);
+            lexer.useDiagnostics(kept);
+            List<String> tokens = describeAll(lexer);
+            tokens.addAll(kept.messages());
+            if (expected == null)
+                expected = tokens;
+            else if (!tokens.equals(expected))
+                return false;
+        }
+        return expected.size() == 9
+            && expected.get(3).equals(sym.ID + "@3:1=z")
+            && expected.get(4).equals(sym.ID + "@5:1=w");
+    }
+
+    /**
+     * Token values are Strings, so they can be compared with and looked
+     * up by ordinary Strings.
+     */
+    public boolean tokenValuesAreStrings() throws IOException {
+        Yylex lexer = new Yylex("x \"s\" x");
+        String x = ((IdTokenVal) lexer.next_token().value).idVal;
+        String s = ((StrLitTokenVal) lexer.next_token().value).strVal;
+        Map<String, Integer> seen = new HashMap<>();
+        seen.put("x", 1);
+        return x.equals("x") && s.equals("\"s\"")
+            && seen.get(((IdTokenVal) lexer.next_token().value).idVal) == 1;
+    }
+
+    public boolean identifiersAreInterned() throws IOException {
+        String test = "alpha beta alpha\nbeta gamma alpha";
+        Yylex lexer = new Yylex(test);
+        List<IdTokenVal> ids = new ArrayList<>();
+        Symbol token;
+        while ((token = lexer.next_token()).sym != sym.EOF)
+            ids.add((IdTokenVal) token.value);
+        IdTable table = lexer.idTable();
+        return ids.size() == 6
+                && table.size() == 3
+                && ids.get(0).idVal == ids.get(2).idVal
+                && ids.get(0).idVal == ids.get(5).idVal
+                && ids.get(1).id == ids.get(3).id
+                && ids.get(4).id == 2
+                && table.name(ids.get(1).id).equals("beta")
+                && table.intern("gamma") == 2;
+    }
+
+    public boolean idTableCanBeShared() throws IOException {
+        IdTable shared = new IdTable();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append("x").append(i).append(' ');
+        Yylex first = new Yylex(sb.toString());
+        first.useIdTable(shared);
+        while (first.next_token().sym != sym.EOF)
+            ;
+        Yylex second = new Yylex("x999 x0 fresh");
+        second.useIdTable(shared);
+        int last = ((IdTokenVal) second.next_token().value).id;
+        int zero = ((IdTokenVal) second.next_token().value).id;
+        int fresh = ((IdTokenVal) second.next_token().value).id;
+        return last == 999 && zero == 0 && fresh == 1000
+                && shared.size() == 1001
+                && shared.name(999).equals("x999");
+    }
+
+    /**
+     * Two scanners stepped alternately must each report columns for
+     * their own input; the column counter used to be a static field.
+     */
+    public boolean interleavedScannersKeepOwnColumns() throws IOException {
+        Yylex a = new Yylex("a bb ccc");
+        Yylex b = new Yylex("    x     y");
+        int[] cols = new int[4];
+        cols[0] = ((TokenVal) a.next_token().value).charnum;
+        cols[1] = ((TokenVal) b.next_token().value).charnum;
+        cols[2] = ((TokenVal) a.next_token().value).charnum;
+        cols[3] = ((TokenVal) b.next_token().value).charnum;
+        return cols[0] == 1 && cols[1] == 5 && cols[2] == 3 && cols[3] == 11;
+    }
+
+    /**
+     * Lines are only counted inside lexemes that can hold a newline, so
+     * check every token's line against a count of the newlines before it,
+     * over input full of comments, blank lines and runs of whitespace.
+     */
+    public boolean lineNumbersSurviveSkippedLexemes() throws IOException {
+        StringBuilder in = new StringBuilder();
+        List<Integer> expected = new ArrayList<>();
+        Random random = new Random(16);
+        int line = 1;
+        for (int i = 0; i < 2000; i++) {
+            switch (random.nextInt(5)) {
+            case 0:
+                in.append("// comment ").append(i).append('\n');
+                line++;
+                break;
+            case 1:
+                in.append("\n\n");
+                line += 2;
+                break;
+            case 2:
+                in.append("  \t x").append(i).append("  # trailing\n");
+                expected.add(line++);
+                break;
+            default:
+                in.append("y = \"s\" + ").append(i).append(";");
+                for (int k = 0; k < 6; k++)
+                    expected.add(line);
+                break;
+            }
+        }
+        Yylex lexer = new Yylex(in);
+        for (int want : expected) {
+            Symbol token = lexer.next_token();
+            if (token.sym == sym.EOF
+                || ((TokenVal) token.value).linenum != want)
+                return false;
+        }
+        return lexer.next_token().sym == sym.EOF;
+    }
+
+    /**
+     * Problems past a scanner's limit are counted into a summary, and an
+     * output stream gets them in whole batches, ending at EOF.
+     */
+    public boolean diagnosticsAreCappedAndBatched() throws IOException {
+        StringBuilder in = new StringBuilder("x 99999999999\n");
+        for (int i = 0; i < 5000; i++)
+            in.append(i == 1100 ? "y^" : "^");
+        Yylex lexer = new Yylex(in);
+        Diagnostics kept = new Diagnostics(10, null);
+        lexer.useDiagnostics(kept);
+        while (lexer.next_token().sym != sym.EOF)
+            ;
+        List<String> messages = kept.messages();
+        boolean ok = kept.size() == 10 && kept.dropped() == 4991
+                && kept.code(0) == Diagnostics.INT_TOO_LARGE
+                && kept.line(1) == 2 && kept.column(1) == 1
+                && kept.code(1) == Diagnostics.ILLEGAL_CHAR
+                && messages.get(1).equals("2:1 ***ERROR*** ignoring illegal character: ^")
+                && messages.get(10).equals("4991 more errors")
+                && messages.size() == 11;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true);
+        Diagnostics printed = new Diagnostics(3000, out);
+        lexer = new Yylex(in);
+        lexer.useDiagnostics(printed);
+        lexer.next_token();  // x
+        lexer.next_token();  // the integer
+        ok &= bytes.size() == 0;
+        lexer.next_token();  // y, after a batch's worth of bad characters
+        String[] lines = bytes.toString().split("\n");
+        ok &= lines.length == Diagnostics.FLUSH_AT;
+        while (lexer.next_token().sym != sym.EOF)
+            ;
+        lines = bytes.toString().split("\n");
+        return ok && lines.length == 3001
+                && lines[0].equals("1:3 ***WARNING*** integer literal too large; using max value")
+                && lines[3000].equals("2001 more errors");
+    }
+
+    /**
+     * Problems a scan holds when it stops before EOF are printed when the
+     * scanner is closed or reset, not lost with it.
+     */
+    public boolean heldDiagnosticsAreFlushedEarly() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true);
+        try (Yylex lexer = new Yylex("^ ^ x ^")) {
+            lexer.useDiagnostics(new Diagnostics(10, out));
+            lexer.next_token();  // x, after two bad characters
+        }
+        boolean ok = bytes.toString().split("\n").length == 2;
+        bytes.reset();
+        Yylex lexer = new Yylex("^ x ^");
+        lexer.useDiagnostics(new Diagnostics(10, out));
+        lexer.next_token();
+        lexer.reset("y");
+        return ok && bytes.toString().equals(
+            "1:1 ***ERROR*** ignoring illegal character: ^"
+            + System.lineSeparator());
+    }
+
+    /**
+     * A CharSequence that is not a String is copied char by char, by the
+     * constructor as by reset, never through a toString() copy.
+     */
+    public boolean charSequenceInputIsNotCopiedTwice() throws IOException {
+        final String text = "while (x1 <= 42) \"s\"\n";
+        CharSequence input = new CharSequence() {
+            public int length() { return text.length(); }
+            public char charAt(int i) { return text.charAt(i); }
+            public CharSequence subSequence(int from, int to) {
+                return text.subSequence(from, to);
+            }
+            public String toString() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        List<String> expected = describeAll(new Yylex(text));
+        Yylex lexer = new Yylex(input);
+        boolean ok = describeAll(lexer).equals(expected);
+        lexer.reset(input);
+        return ok && describeAll(lexer).equals(expected);
+    }
+
+    /**
+     * A scanner's own sink keeps fewer problems than a batch; reaching
+     * that limit must print them, even if the scanner is never closed.
+     */
+    public boolean diagnosticsLimitFlushesBatch() throws IOException {
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < Yylex.DIAGNOSTICS_LIMIT + 5; i++)
+            in.append('^');
+        in.append(" x");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(bytes, true));
+        try {
+            Yylex lexer = new Yylex(in);
+            lexer.next_token();  // x, not at EOF yet
+        } finally {
+            System.setErr(err);
+        }
+        return bytes.toString().split("\n").length == Yylex.DIAGNOSTICS_LIMIT;
+    }
+
+    /**
+     * A reset scanner must scan like a new one, even if it was left part
+     * way through its input with problems held, and text handed out
+     * before the reset must not change.
+     */
+    public boolean resetScannerMatchesNewOne() throws IOException {
+        String first = "\"kept\" x\ny = 99999999999 ^ // unfinished";
+        String second = "if (a <= 42) { cout << \"v\"; }\n  b1 = !c;\n";
+        Yylex lexer = new Yylex(first);
+        lexer.useDiagnostics(new Diagnostics());
+        Symbol kept = lexer.next_token();
+        for (int i = 0; i < 4; i++)
+            lexer.next_token();
+        lexer.reset(second);
+        List<String> reused = describeAll(lexer);
+        boolean ok = reused.equals(describeAll(new Yylex(second)))
+                && lexer.charNum() == 1 && lexer.diagnostics().size() == 0
+                && ((StrLitTokenVal) kept.value).strVal.toString().equals("\"kept\"");
+        lexer.reset(new StringReader(first + "\n" + second));
+        return ok && describeAll(lexer).equals(describeAll(new Yylex(first + "\n" + second)));
+    }
+
+    /**
+     * A table or sink taken from a scanner, or given to it, must keep its
+     * contents when the scanner is reset; the scanner moves on to new ones.
+     */
+    public boolean resetLeavesHeldTablesAlone() throws IOException {
+        Yylex lexer = YylexPool.acquire("alpha beta ^");
+        Diagnostics problems = new Diagnostics();
+        lexer.useDiagnostics(problems);
+        IdTable held = lexer.idTable();
+        while (lexer.next_token().sym != sym.EOF)
+            ;
+        YylexPool.release(lexer);
+        Yylex reused = YylexPool.acquire("gamma");
+        reused.next_token();
+        boolean ok = reused == lexer
+            && held.size() == 2 && held.name(0).equals("alpha")
+            && problems.size() == 1
+            && reused.idTable() != held && reused.idTable().size() == 1
+            && reused.diagnostics() != problems;
+
+        IdTable shared = new IdTable();
+        shared.intern("delta");
+        reused.useIdTable(shared);
+        reused.reset("epsilon");
+        reused.next_token();
+        YylexPool.release(reused);
+        return ok && shared.size() == 1 && reused.idTable() != shared;
+    }
+
+    /**
+     * A buffer grown for one big input must not stay with a scanner that
+     * is reset for small ones; a buffer of ordinary size is kept.
+     */
+    public boolean resetDropsOversizedBuffer() throws Exception {
+        java.lang.reflect.Field buffer = Yylex.class.getDeclaredField("yy_buffer");
+        buffer.setAccessible(true);
+        StringBuilder big = new StringBuilder();
+        while (big.length() < 1 << 20)
+            big.append("x1 = 42;\n");
+        Yylex lexer = new Yylex(big);
+        while (lexer.next_token().sym != sym.EOF)
+            ;
+        lexer.reset("y = 1;");
+        char[] small = (char[]) buffer.get(lexer);
+        lexer.reset(new StringReader("z"));
+        return small.length < 1 << 20 && buffer.get(lexer) == small
+            && describeAll(lexer).equals(describeAll(new Yylex("z")));
+    }
+
+    /**
+     * The DFA tables belong to the scanner class, not to each scanner, so
+     * they are decoded once and shared.  Which tables there are depends
+     * on how the scanner was generated; yy_acpt is always there.
+     */
+    public boolean scannerTablesAreShared() {
+        int found = 0;
+        for (java.lang.reflect.Field f : Yylex.class.getDeclaredFields()) {
+            if (!f.getName().matches("yy_(acpt|cmap|rmap|nxt)"))
+                continue;
+            int mods = f.getModifiers();
+            if (!java.lang.reflect.Modifier.isStatic(mods)
+                || !java.lang.reflect.Modifier.isFinal(mods))
+                return false;
+            if (f.getName().equals("yy_acpt"))
+                found++;
+        }
+        return found == 1;
+    }
+
+    /**
+     * The pool hands a released scanner out again, reset for its new
+     * input.
+     */
+    public boolean pooledScannersAreReused() throws IOException {
+        Yylex a = YylexPool.acquire("x");
+        Yylex b = YylexPool.acquire("y");
+        a.next_token();
+        YylexPool.release(a);
+        Yylex c = YylexPool.acquire("while (z)");
+        boolean ok = c == a && c != b
+                && describeAll(c).equals(describeAll(new Yylex("while (z)")));
+        YylexPool.release(b);
+        YylexPool.release(c);
+        return ok;
+    }
+
+    /**
+     * The parallel driver must give each file exactly the tokens and
+     * messages a lone scanner would, in the order the files were listed.
+     */
+    public boolean driverMatchesSequentialScans() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("moo");
+        List<java.nio.file.Path> files = new ArrayList<>();
+        String tokens = new String(java.nio.file.Files.readAllBytes(
+            java.nio.file.Paths.get("allTokens.in")));
+        for (int i = 0; i < 20; i++) {
+            java.nio.file.Path f = dir.resolve("f" + i + ".moo");
+            String body = i % 3 == 0 ? "x = 99999999999;\n$ \"bad\\q\"\n"
+                                     : tokens.substring(i * 7);
+            java.nio.file.Files.write(f, body.getBytes());
+            files.add(f);
+        }
+        java.util.concurrent.ForkJoinPool pool =
+            new java.util.concurrent.ForkJoinPool(4);
+        ScanDriver.Batch batch;
+        try {
+            batch = new ScanDriver(pool).scan(files);
+        } finally {
+            pool.shutdown();
+        }
+        boolean ok = batch.results.size() == files.size()
+                && ScanDriver.mooFiles(dir).size() == files.size();
+        for (int i = 0; ok && i < files.size(); i++) {
+            ScanDriver.Result r = batch.results.get(i);
+            Yylex lexer = new Yylex(files.get(i));
+            Diagnostics diagnostics = new Diagnostics();
+            lexer.useDiagnostics(diagnostics);
+            List<String> expected = describeAll(lexer);
+            List<String> messages = diagnostics.messages();
+            List<String> actual = new ArrayList<>();
+            for (Symbol token : r.tokens)
+                actual.add(describe(token));
+            ok = r.file.equals(files.get(i)) && r.error == null
+                    && actual.equals(expected)
+                    && r.messages.equals(messages)
+                    && (i % 3 != 0 || messages.size() == 3);
+        }
+        for (java.nio.file.Path f : files)
+            java.nio.file.Files.delete(f);
+        java.nio.file.Files.delete(dir);
+        return ok;
+    }
+
+    /**
+     * A file that breaks its scanner fails on its own; the files around
+     * it are still scanned.  Here the bad file is in a zip file system,
+     * which cannot map files, so the scanner gets an unchecked exception
+     * rather than an IOException.
+     */
+    public boolean badFileFailsAlone() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("moo");
+        java.nio.file.Path zip = dir.resolve("bad.zip");
+        Map<String, String> create = new HashMap<>();
+        create.put("create", "true");
+        try (java.nio.file.FileSystem fs =
+                 java.nio.file.FileSystems.newFileSystem(zip, create)) {
+            List<java.nio.file.Path> files = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                java.nio.file.Path f = (i == 1 ? fs.getPath("/") : dir)
+                    .resolve("f" + i + ".moo");
+                java.nio.file.Files.write(f, ("x" + i + " = 1;\n").getBytes());
+                files.add(f);
+            }
+            java.util.concurrent.ForkJoinPool pool =
+                new java.util.concurrent.ForkJoinPool(2);
+            ScanDriver.Batch batch;
+            try {
+                batch = new ScanDriver(pool).scan(files);
+            } finally {
+                pool.shutdown();
+            }
+            ScanDriver.Result bad = batch.results.get(1);
+            return batch.results.size() == 3
+                && bad.error instanceof UnsupportedOperationException
+                && bad.tokens.isEmpty()
+                && batch.results.get(0).error == null
+                && batch.results.get(0).tokens.size() == 5
+                && batch.results.get(2).error == null
+                && batch.results.get(2).tokens.size() == 5;
+        } finally {
+            for (String name : new String[] {"f0.moo", "f2.moo", "bad.zip"})
+                java.nio.file.Files.deleteIfExists(dir.resolve(name));
+            java.nio.file.Files.delete(dir);
+        }
+    }
+
+    /**
+     * Cutting a file at newlines and scanning the pieces in parallel must
+     * give the same tokens, positions and messages as one scanner would.
+     */
+    public boolean chunkedScanMatchesWholeFile() throws Exception {
+        String tokens = new String(java.nio.file.Files.readAllBytes(
+            java.nio.file.Paths.get("allTokens.in")));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++)
+            sb.append(tokens).append(i % 2 == 0 ? "# comment\n" : "\n\n");
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("moo", ".moo");
+        java.nio.file.Files.write(file, sb.toString().getBytes());
+        ScanDriver.Result whole = ScanDriver.scanFile(file);
+        java.util.concurrent.ForkJoinPool pool =
+            new java.util.concurrent.ForkJoinPool(4);
+        boolean ok = true;
+        try {
+            for (long chunkSize : new long[] { 1, 100, 5000, 1 << 20 }) {
+                ScanDriver.Result chunked =
+                    new ScanDriver(pool).scanChunked(file, chunkSize);
+                List<String> expected = new ArrayList<>();
+                for (Symbol token : whole.tokens)
+                    expected.add(describe(token));
+                List<String> actual = new ArrayList<>();
+                for (Symbol token : chunked.tokens)
+                    actual.add(describe(token));
+                ok &= chunked.error == null && actual.equals(expected)
+                        && chunked.messages.equals(whole.messages);
+            }
+        } finally {
+            pool.shutdown();
+            java.nio.file.Files.delete(file);
+        }
+        return ok && whole.messages.size() > 30;
+    }
+
+    /**
+     * After every one of a run of random edits, the incrementally kept
+     * tokens must be exactly those of a fresh scan of the edited text,
+     * and a small edit must only rescan the lines it touches.
+     */
+    public boolean incrementalLexerMatchesFullRescan() throws IOException {
+        String tokens = new String(java.nio.file.Files.readAllBytes(
+            java.nio.file.Paths.get("allTokens.in")));
+        StringBuilder doc = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+            doc.append(tokens).append("\n// comment ").append(i).append('\n');
+        IncrementalLexer inc = new IncrementalLexer(doc);
+        int mark = doc.indexOf("// comment 10");
+        inc.edit(mark, 0, "x = 1;");
+        doc.insert(mark, "x = 1;");
+        if (inc.rescanned() > 30 || inc.removed() != 0 || inc.added() != 4)
+            return false;
+        String[] pieces = { "", "x", "\n", "\"", "//", "# c\n", "12 ", "int",
+                            "\\", "{ a = b; }\n", "  ", "\n\n\"s\"", "\r",
+                            "\r\n" };
+        Random rand = new Random(42);
+        for (int round = 0; round < 300; round++) {
+            int at = rand.nextInt(doc.length() + 1);
+            int del = rand.nextInt(Math.min(6, doc.length() - at) + 1);
+            String ins = pieces[rand.nextInt(pieces.length)];
+            doc.replace(at, at + del, ins);
+            inc.edit(at, del, ins);
+            if (!inc.text().toString().equals(doc.toString()))
+                return false;
+
+            Yylex lexer = new Yylex(doc);
+            lexer.useDiagnostics(new Diagnostics());
+            PackedTokens all = new PackedTokens(doc.length() + 1);
+            int n = lexer.next_packed(all);
+            if (n != inc.size())
+                return false;
+            for (int i = 0; i < n; i++) {
+                if (all.kind[i] != inc.kind(i) || all.line[i] != inc.line(i)
+                    || all.column[i] != inc.column(i)
+                    || all.offset[i] != inc.offset(i)
+                    || all.length[i] != inc.length(i))
+                    return false;
+                if (all.kind[i] == sym.ID
+                    ? !lexer.idTable().name(all.value[i]).equals(
+                          inc.idTable().name(inc.value(i)))
+                    : all.value[i] != inc.value(i))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * \r\n is one line end.  An edit that puts a \n just after a \r, or
+     * removes what stood between them, joins two line ends into one, and
+     * the lines of the tokens after it must follow.
+     */
+    public boolean incrementalLexerJoinsAndSplitsCrLf() throws IOException {
+        StringBuilder doc = new StringBuilder("a\rb\r\nc\rXY\nd\r\ne\n");
+        IncrementalLexer inc = new IncrementalLexer(doc);
+        int[][] edits = { {2, 0}, {11, 2}, {2, 1}, {6, 1}, {5, 0} };
+        String[] inserted = { "\n", "", "", "", "x\r" };
+        for (int e = 0; e < edits.length; e++) {
+            int at = edits[e][0], del = edits[e][1];
+            doc.replace(at, at + del, inserted[e]);
+            inc.edit(at, del, inserted[e]);
+            Yylex lexer = new Yylex(doc);
+            PackedTokens all = new PackedTokens(doc.length() + 1);
+            int n = lexer.next_packed(all);
+            if (n != inc.size())
+                return false;
+            for (int i = 0; i < n; i++) {
+                if (all.line[i] != inc.line(i) || all.offset[i] != inc.offset(i))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A file whose lines end in a bare \r has line ends all the same: an
+     * edit on one of its lines must rescan that line, not everything
+     * from the start of the file.
+     */
+    public boolean incrementalLexerDamagesOneCrLine() throws IOException {
+        StringBuilder doc = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            doc.append("x").append(i).append(" = ").append(i).append(";\r");
+        IncrementalLexer inc = new IncrementalLexer(doc);
+        int at = doc.indexOf("x50");
+        int lineLength = doc.indexOf("\r", at) + 1 - at;
+        doc.replace(at, at + 3, "y50");
+        inc.edit(at, 3, "y50");
+        if (inc.rescanned() != lineLength)
+            return false;
+        Yylex lexer = new Yylex(doc);
+        PackedTokens all = new PackedTokens(doc.length() + 1);
+        int n = lexer.next_packed(all);
+        if (n != inc.size())
+            return false;
+        for (int i = 0; i < n; i++) {
+            if (all.line[i] != inc.line(i) || all.offset[i] != inc.offset(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A second scan of an unchanged file must come from the cache and
+     * match the first; a changed file must miss.  Storing more than the
+     * size bound must evict old entries.
+     */
+    public boolean tokenCacheAnswersUnchangedFiles() throws IOException {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("cache");
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("moo", ".moo");
+        try {
+            java.nio.file.Files.copy(java.nio.file.Paths.get("allTokens.in"), file,
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            ScanDriver.Result direct = ScanDriver.scanFile(file);
+            TokenCache cache = new TokenCache(dir, 1 << 20);
+            ScanDriver.Result first = cache.scan(file);
+            ScanDriver.Result second = cache.scan(file);
+            List<String> expected = new ArrayList<>();
+            for (Symbol token : direct.tokens)
+                expected.add(describe(token));
+            List<String> cached = new ArrayList<>();
+            for (Symbol token : second.tokens)
+                cached.add(describe(token));
+            boolean ok = cache.misses() == 1 && cache.hits() == 1
+                    && cached.equals(expected)
+                    && second.messages.equals(direct.messages)
+                    && first.messages.equals(direct.messages);
+
+            java.nio.file.Files.write(file, "int x;".getBytes());
+            ok &= cache.scan(file).tokens.size() == 4 && cache.misses() == 2;
+
+            // each entry is well over 100 bytes, so only the newest survive
+            TokenCache small = new TokenCache(dir, 1000);
+            for (int i = 0; i < 20; i++) {
+                java.nio.file.Files.write(file, ("x" + i + " = \"some text\";").getBytes());
+                small.scan(file);
+            }
+            long total = 0;
+            int entries = 0;
+            try (java.nio.file.DirectoryStream<java.nio.file.Path> all =
+                     java.nio.file.Files.newDirectoryStream(dir, "*.tok")) {
+                for (java.nio.file.Path p : all) {
+                    total += java.nio.file.Files.size(p);
+                    entries++;
+                }
+            }
+            small.scan(file);
+            return ok && total <= 1000 && entries > 0 && small.hits() == 1;
+        } finally {
+            try (java.nio.file.DirectoryStream<java.nio.file.Path> all =
+                     java.nio.file.Files.newDirectoryStream(dir)) {
+                for (java.nio.file.Path p : all)
+                    java.nio.file.Files.delete(p);
+            }
+            java.nio.file.Files.delete(dir);
+            java.nio.file.Files.delete(file);
+        }
+    }
+
+    /**
+     * An empty or truncated entry, e.g. from a full disk, is a miss that
+     * the next scan overwrites, not an error for every later scan.
+     */
+    public boolean tokenCacheReplacesBrokenEntries() throws IOException {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("cache");
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("moo", ".moo");
+        try {
+            java.nio.file.Files.write(file, "int x = 42;".getBytes());
+            TokenCache cache = new TokenCache(dir, 1 << 20);
+            cache.scan(file);
+            boolean ok = true;
+            for (int keep : new int[] {0, 3}) {
+                try (java.nio.file.DirectoryStream<java.nio.file.Path> all =
+                         java.nio.file.Files.newDirectoryStream(dir, "*.tok")) {
+                    for (java.nio.file.Path p : all) {
+                        byte[] entry = java.nio.file.Files.readAllBytes(p);
+                        java.nio.file.Files.write(p,
+                            java.util.Arrays.copyOf(entry, keep));
+                    }
+                }
+                int hits = cache.hits();
+                ScanDriver.Result broken = cache.scan(file);
+                ScanDriver.Result again = cache.scan(file);
+                ok &= broken.error == null && broken.tokens.size() == 6
+                    && cache.hits() == hits + 1 && again.tokens.size() == 6;
+            }
+            return ok;
+        } finally {
+            try (java.nio.file.DirectoryStream<java.nio.file.Path> all =
+                     java.nio.file.Files.newDirectoryStream(dir)) {
+                for (java.nio.file.Path p : all)
+                    java.nio.file.Files.delete(p);
+            }
+            java.nio.file.Files.delete(dir);
+            java.nio.file.Files.delete(file);
+        }
+    }
+
+    /**
+     * Temporary files left by a writer that died are removed when a cache
+     * first stores an entry; one still being written is not.  Later
+     * stores that keep the cache under its bound do not list the
+     * directory again, so they leave the next stale file alone.
+     */
+    public boolean tokenCacheSweepsAbandonedParts() throws IOException {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("cache");
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("moo", ".moo");
+        try {
+            java.nio.file.Path old = dir.resolve("tmp1.part");
+            java.nio.file.Path live = dir.resolve("tmp2.part");
+            java.nio.file.Files.write(old, new byte[10]);
+            java.nio.file.Files.write(live, new byte[10]);
+            java.nio.file.Files.setLastModifiedTime(old,
+                java.nio.file.attribute.FileTime.fromMillis(
+                    System.currentTimeMillis() - 2 * 60 * 60 * 1000));
+            java.nio.file.Files.write(file, "int x;".getBytes());
+            TokenCache cache = new TokenCache(dir, 1 << 20);
+            cache.scan(file);
+            boolean ok = !java.nio.file.Files.exists(old)
+                && java.nio.file.Files.exists(live);
+            java.nio.file.Files.write(old, new byte[10]);
+            java.nio.file.Files.setLastModifiedTime(old,
+                java.nio.file.attribute.FileTime.fromMillis(
+                    System.currentTimeMillis() - 2 * 60 * 60 * 1000));
+            java.nio.file.Files.write(file, "int y;".getBytes());
+            cache.scan(file);
+            return ok && cache.misses() == 2 && java.nio.file.Files.exists(old);
+        } finally {
+            try (java.nio.file.DirectoryStream<java.nio.file.Path> all =
+                     java.nio.file.Files.newDirectoryStream(dir)) {
+                for (java.nio.file.Path p : all)
+                    java.nio.file.Files.delete(p);
+            }
+            java.nio.file.Files.delete(dir);
+            java.nio.file.Files.delete(file);
+        }
+    }
+
+    /**
+     * Writing a scan as a binary token stream and reading it back must
+     * give the same tokens, offsets and messages, in much less space than
+     * the same tokens printed as text.
+     */
+    public boolean binaryTokenStreamRoundTrips() throws IOException {
+        String tokens = new String(java.nio.file.Files.readAllBytes(
+            java.nio.file.Paths.get("allTokens.in")));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+            sb.append(tokens).append("\nx").append(i % 7).append(" = 123456;\n");
+        for (int i = 0; i < 500; i++)
+            sb.append("int x_").append(i % 40).append(" = 123 + y * (z - 7); // note\n");
+        String in = sb.toString();
+
+        Yylex lexer = new Yylex(in);
+        Diagnostics diagnostics = new Diagnostics();
+        lexer.useDiagnostics(diagnostics);
+        PackedTokens all = new PackedTokens(in.length() + 1);
+        int n = lexer.next_packed(all);
+        List<String> messages = diagnostics.messages();
+        int textSize = 0;
+        for (int i = 0; i < n; i++)
+            textSize += (all.kind[i] + " " + all.line[i] + ":" + all.column[i]
+                         + " " + all.offset[i] + " ").length() + all.length[i] + 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TokenWriter out = new TokenWriter(bytes, true)) {
+            for (String msg : messages)
+                out.message(msg);
+            for (int i = 0; i < n; i++) {
+                int kind = all.kind[i];
+                int offset = (int) all.offset[i];
+                if (kind == sym.ID || kind == sym.STRINGLITERAL)
+                    out.text(kind, all.line[i], all.column[i], offset,
+                             in.substring(offset, offset + all.length[i]));
+                else if (kind == sym.INTLITERAL)
+                    out.intLiteral(all.line[i], all.column[i], offset,
+                                   all.value[i]);
+                else
+                    out.token(kind, all.line[i], all.column[i], offset);
+            }
+        }
+
+        TokenReader reader = new TokenReader(java.nio.ByteBuffer.wrap(bytes.toByteArray()));
+        List<String> readMessages = new ArrayList<>();
+        int i = 0;
+        int kind;
+        while ((kind = reader.next()) != sym.EOF) {
+            if (kind == TokenWriter.MESSAGE) {
+                readMessages.add(reader.text());
+                continue;
+            }
+            if (i >= n || kind != all.kind[i] || reader.line() != all.line[i]
+                || reader.column() != all.column[i]
+                || reader.offset() != all.offset[i])
+                return false;
+            if (kind == sym.INTLITERAL && reader.intValue() != all.value[i])
+                return false;
+            if ((kind == sym.ID || kind == sym.STRINGLITERAL)
+                && !reader.text().equals(in.substring((int) all.offset[i],
+                    (int) all.offset[i] + all.length[i])))
+                return false;
+            i++;
+        }
+        return i == n && readMessages.equals(messages)
+                && bytes.size() * 3 < textSize;
+    }
+
+    /**
+     * A corrupt string reference, here a varint that decodes to -1, must
+     * be reported as a bad stream, not fail with an index out of bounds.
+     */
+    public boolean corruptStringReferenceIsIOException() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TokenWriter out = new TokenWriter(bytes, false)) {
+            out.text(sym.ID, 1, 1, 0, "x");
+        }
+        byte[] good = bytes.toByteArray();
+        // the ID again, on the same line, referring back with ref -1
+        byte[] bad = Arrays.copyOf(good, good.length + 8);
+        int at = good.length - 1;  // over the EOF
+        for (int b : new int[] {sym.ID, 0, 4, 0xff, 0xff, 0xff, 0xff, 0x0f, sym.EOF})
+            bad[at++] = (byte) b;
+        TokenReader reader = new TokenReader(java.nio.ByteBuffer.wrap(bad));
+        if (reader.next() != sym.ID || !reader.text().equals("x"))
+            return false;
+        try {
+            reader.next();
+            return false;
+        } catch (IOException ex) {
+            return ex.getMessage().equals("bad string reference");
+        }
+    }
+
+    /**
+     * Scans to EOF, rendering each token with its position and value so
+     * two token streams can be compared for equality.
+     */
+    private static List<String> describeAll(Yylex lexer) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        Symbol token;
+        do {
+            token = lexer.next_token();
+            tokens.add(describe(token));
+        } while (token.sym != sym.EOF);
+        return tokens;
+    }
+
+    private static String describe(Symbol token) {
+        if (!(token.value instanceof TokenVal))
+            return String.valueOf(token.sym);
+        TokenVal t = (TokenVal) token.value;
+        String desc = token.sym + "@" + t.linenum + ":" + t.charnum;
+        if (t instanceof IdTokenVal)
+            desc += "=" + ((IdTokenVal) t).idVal;
+        else if (t instanceof IntLitTokenVal)
+            desc += "=" + ((IntLitTokenVal) t).intVal;
+        else if (t instanceof StrLitTokenVal)
+            desc += "=" + ((StrLitTokenVal) t).strVal;
+        return desc;
+    }
+
     public boolean validStringParsesAsString() throws IOException
     {
         String test = "\"Test string with valid escape sequence\\n\"";
@@ -351,8 +1531,8 @@ public class P2 {
             Symbol token = lexer.next_token();
             StrLitTokenVal value = ((StrLitTokenVal) token.value);
             return  token.sym == sym.STRINGLITERAL
-                    && CharNum.num == test.length() + 1
-                    && value.strVal.equals(test)
+                    && lexer.charNum() == test.length() + 1
+                    && value.strVal.toString().equals(test)
                     && value.linenum == 1
                     && value.charnum == 1;
         }
@@ -420,7 +1600,7 @@ public class P2 {
         try (StringReader reader = new StringReader(test)) {
             Yylex lexer = new Yylex(reader);
             Symbol token = lexer.next_token();
-            return CharNum.num == test.length() + 1;
+            return lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -431,7 +1611,7 @@ public class P2 {
             Symbol token = lexer.next_token();
             IntLitTokenVal value = ((IntLitTokenVal) token.value);
             return token.sym == sym.INTLITERAL
-                    && CharNum.num == 2
+                    && lexer.charNum() == 2
                     && value.linenum == 2
                     && value.charnum == 1;
         }
@@ -443,7 +1623,7 @@ public class P2 {
             Yylex lexer = new Yylex(reader);
             Symbol token = lexer.next_token();
             IdTokenVal value = ((IdTokenVal) token.value);
-            return CharNum.num == test.length() + 1
+            return lexer.charNum() == test.length() + 1
                     && value.linenum == 1
                     && value.charnum == 2;
         }
@@ -458,7 +1638,7 @@ public class P2 {
             return token.sym == sym.BOOL
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -471,7 +1651,7 @@ public class P2 {
             return token.sym == sym.LCURLY
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -484,7 +1664,7 @@ public class P2 {
             return token.sym == sym.RCURLY
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -498,7 +1678,7 @@ public class P2 {
             return token.sym == sym.LPAREN
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -511,7 +1691,7 @@ public class P2 {
             return token.sym == sym.RPAREN
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -524,7 +1704,7 @@ public class P2 {
             return token.sym == sym.SEMICOLON
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -537,7 +1717,7 @@ public class P2 {
             return token.sym == sym.COMMA
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -550,7 +1730,7 @@ public class P2 {
             return token.sym == sym.DOT
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -563,7 +1743,7 @@ public class P2 {
             return token.sym == sym.WRITE
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -576,7 +1756,7 @@ public class P2 {
             return token.sym == sym.READ
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -589,7 +1769,7 @@ public class P2 {
             return token.sym == sym.PLUSPLUS
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -602,7 +1782,7 @@ public class P2 {
             return token.sym == sym.MINUSMINUS
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -615,7 +1795,7 @@ public class P2 {
             return token.sym == sym.PLUS
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
     public boolean minusParsedCorrectly() throws IOException {
@@ -627,7 +1807,7 @@ public class P2 {
             return token.sym == sym.MINUS
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -640,7 +1820,7 @@ public class P2 {
             return token.sym == sym.TIMES
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -653,7 +1833,7 @@ public class P2 {
             return token.sym == sym.DIVIDE
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -666,7 +1846,7 @@ public class P2 {
             return token.sym == sym.NOT
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -679,7 +1859,7 @@ public class P2 {
             return token.sym == sym.AND
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -692,7 +1872,7 @@ public class P2 {
             return token.sym == sym.OR
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -705,7 +1885,7 @@ public class P2 {
             return token.sym == sym.EQUALS
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -718,7 +1898,7 @@ public class P2 {
             return token.sym == sym.NOTEQUALS
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -731,7 +1911,7 @@ public class P2 {
             return token.sym == sym.LESS
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -744,7 +1924,7 @@ public class P2 {
             return token.sym == sym.GREATER
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -757,7 +1937,7 @@ public class P2 {
             return token.sym == sym.LESSEQ
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -770,7 +1950,7 @@ public class P2 {
             return token.sym == sym.GREATEREQ
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
 
@@ -783,7 +1963,7 @@ public class P2 {
             return token.sym == sym.ASSIGN
                     && value.linenum == 1
                     && value.charnum == 1
-                    && CharNum.num == test.length() + 1;
+                    && lexer.charNum() == test.length() + 1;
         }
     }
     
@@ -0,0 +1,36 @@
+/**
+ * PackedTokens
+ *
+ * A caller-owned batch of tokens stored as parallel arrays, filled by
+ * Yylex.next_packed without allocating a Symbol or TokenVal per token.
+ * Entry i of each array describes the i-th token of the batch; only the
+ * first count entries are valid.
+ */
+class PackedTokens {
+  // fields
+    final int[] kind;     // sym constant
+    final int[] line;     // line number, starting at 1
+    final int[] column;   // character number on that line, starting at 1
+    final long[] offset;  // character offset of the token in the input,
+                          // which may be past 2^31 in a mapped file
+    final int[] length;   // number of characters in the token
+    final int[] value;    // value of an integer literal, IdTable id of an
+                          // identifier, 0 otherwise
+    int count;
+  // constructor
+    PackedTokens(int capacity) {
+        kind = new int[capacity];
+        line = new int[capacity];
+        column = new int[capacity];
+        offset = new long[capacity];
+        length = new int[capacity];
+        value = new int[capacity];
+    }
+
+    /**
+     * @return the maximum number of tokens one batch can hold
+     */
+    int capacity() {
+        return kind.length;
+    }
+}
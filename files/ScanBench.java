@@ -0,0 +1,176 @@
+import java.io.*;
+import java_cup.runtime.*;  // defines Symbol
+
+/**
+ * ScanBench
+ *
+ * Rough throughput benchmarks for the scanner.  Each benchmark builds its
+ * input in memory, scans it a few times to warm up the JIT, and then
+ * reports the best of several timed runs.
+ *
+ * Usage: java ScanBench [benchmark ...]   (default: all of them)
+ *
+ * The exception is startup, which times the first token of a fresh JVM
+ * and so has to be asked for, and come first: java ScanBench startup.
+ */
+public class ScanBench {
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws IOException {
+        String[] names = args.length > 0 ? args : new String[] {
+            "keywords", "numbers", "batch", "garbage", "snippets" };
+        for (String name : names) {
+            switch (name) {
+            case "keywords":
+                report(name, keywordInput(), ScanBench::scanSymbols);
+                break;
+            case "numbers":
+                report(name, numberInput(), ScanBench::scanSymbols);
+                break;
+            case "batch":
+                report("symbols", mixedInput(), ScanBench::scanSymbols);
+                report("batch", mixedInput(), ScanBench::scanBatches);
+                break;
+            case "snippets":
+                report("new", snippetInput(), ScanBench::scanSnippetsNew);
+                report("pooled", snippetInput(), ScanBench::scanSnippetsPooled);
+                break;
+            case "startup":
+                startup();
+                break;
+            case "garbage":
+                report("clean", mixedInput(), ScanBench::scanSymbols);
+                report("garbage", garbageInput(), ScanBench::scanSymbols);
+                break;
+            default:
+                System.err.println("unknown benchmark: " + name);
+                System.exit(1);
+            }
+        }
+    }
+
+    interface Scan {
+        int run(String input) throws IOException;
+    }
+
+    private static void report(String name, String input, Scan scan)
+            throws IOException {
+        int tokens = 0;
+        for (int i = 0; i < WARMUP; i++)
+            tokens = scan.run(input);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            scan.run(input);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-12s %9d tokens %8.2f ms %8.2f Mtokens/s%n",
+            name, tokens, best / 1e6, tokens * 1e3 / best);
+    }
+
+    // Times the first token from a new Yylex, which includes loading the
+    // class and building its tables.  One run is one sample, so repeat it.
+    private static void startup() throws IOException {
+        long start = System.nanoTime();
+        new Yylex("x").next_token();
+        long time = System.nanoTime() - start;
+        System.out.printf("%-12s %9d tokens %8.2f ms%n", "startup", 1, time / 1e6);
+    }
+
+    // Scans input to EOF through next_token, returning the token count.
+    // Problems are recorded up to the usual limit but not printed.
+    private static int scanSymbols(String input) throws IOException {
+        Yylex lexer = new Yylex(input);
+        lexer.useDiagnostics(new Diagnostics(Yylex.DIAGNOSTICS_LIMIT, null));
+        int n = 0;
+        while (lexer.next_token().sym != sym.EOF)
+            n++;
+        return n;
+    }
+
+    // Scans input to EOF in batches of 1024 tokens, returning the count.
+    private static int scanBatches(String input) throws IOException {
+        Yylex lexer = new Yylex(input);
+        int n = 0, got;
+        while ((got = lexer.next_packed(BATCH)) > 0)
+            n += got;
+        return n;
+    }
+
+    private static final PackedTokens BATCH = new PackedTokens(1024);
+
+    // Scans each line of input with a scanner of its own, as a service
+    // lexing small snippets would.
+    private static int scanSnippetsNew(String input) throws IOException {
+        int n = 0;
+        for (String snippet : input.split("\n")) {
+            Yylex lexer = new Yylex(snippet);
+            while (lexer.next_token().sym != sym.EOF)
+                n++;
+        }
+        return n;
+    }
+
+    // As scanSnippetsNew, taking the scanners from YylexPool.
+    private static int scanSnippetsPooled(String input) throws IOException {
+        int n = 0;
+        for (String snippet : input.split("\n")) {
+            Yylex lexer = YylexPool.acquire(snippet);
+            while (lexer.next_token().sym != sym.EOF)
+                n++;
+            YylexPool.release(lexer);
+        }
+        return n;
+    }
+
+    // Statement-like lines mixing identifiers, keywords, operators and
+    // literals.
+    private static String mixedInput() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50000; i++)
+            sb.append("if (x").append(i % 100).append(" <= 42) { cout << \"v\"; y = y + 1; }\n");
+        return sb.toString();
+    }
+
+    // mixedInput with one character in eight replaced by an illegal one,
+    // as in a corrupted file; every replacement is a reported error.
+    private static String garbageInput() {
+        char[] cs = mixedInput().toCharArray();
+        for (int i = 3; i < cs.length; i += 8) {
+            if (cs[i] != '\n')
+                cs[i] = '^';
+        }
+        return new String(cs);
+    }
+
+    // Short one-line snippets.
+    private static String snippetInput() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+            sb.append("x").append(i % 100).append(" = y + ").append(i).append(";\n");
+        return sb.toString();
+    }
+
+    // Lines made up entirely of keywords.
+    private static String keywordInput() {
+        String line = "bool int void true false struct cin cout if else while return\n";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50000; i++)
+            sb.append(line);
+        return sb.toString();
+    }
+
+    // Comma-separated integer literals of varying length, as in a data file.
+    private static String numberInput() {
+        StringBuilder sb = new StringBuilder();
+        long x = 12345;
+        for (int i = 0; i < 50000; i++) {
+            for (int j = 0; j < 10; j++) {
+                x = (x * 1103515245 + 12345) & 0x7fffffff;
+                sb.append(x >> (j * 3)).append(j < 9 ? ", " : "\n");
+            }
+        }
+        return sb.toString();
+    }
+}
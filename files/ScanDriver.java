@@ -0,0 +1,419 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java_cup.runtime.*;  // defines Symbol
+
+/**
+ * ScanDriver
+ *
+ * Scans many moo files at once, one scanner per file, on a caller-chosen
+ * executor.  Results come back in the order the files were given, however
+ * the tasks happened to be scheduled.
+ *
+ * Usage: java ScanDriver [-j threads] [-c chunkMB] [-cache dir]
+ *                        (directory | file) ...
+ * Directories are searched recursively for *.moo files.  With -c, files
+ * are taken one at a time and each is cut into chunks scanned in parallel.
+ * With -cache, results are kept in (and taken from) a TokenCache in dir.
+ */
+public class ScanDriver {
+    /**
+     * The outcome of scanning one file.
+     */
+    static final class Result {
+        final Path file;
+        // every token up to and including EOF; empty if error is set
+        final List<Symbol> tokens;
+        // error and warning messages in the order the scanner made them
+        final List<String> messages;
+        // the reason the file could not be read or scanned, or null
+        final Throwable error;
+        final long bytes;
+        final long nanos;
+
+        Result(Path file, List<Symbol> tokens, List<String> messages,
+               Throwable error, long bytes, long nanos) {
+            this.file = file;
+            this.tokens = tokens;
+            this.messages = messages;
+            this.error = error;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * The outcome of one call to scan(): a Result per file plus totals.
+     */
+    static final class Batch {
+        final List<Result> results;
+        final long nanos;  // wall-clock time for the whole batch
+
+        Batch(List<Result> results, long nanos) {
+            this.results = results;
+            this.nanos = nanos;
+        }
+
+        long tokens() {
+            long n = 0;
+            for (Result r : results)
+                n += r.tokens.size();
+            return n;
+        }
+
+        long bytes() {
+            long n = 0;
+            for (Result r : results)
+                n += r.bytes;
+            return n;
+        }
+
+        /**
+         * @return a one-line summary of the batch's size and throughput
+         */
+        String throughput() {
+            double seconds = Math.max(nanos, 1) / 1e9;
+            return String.format("%d files, %d tokens, %d bytes in %.2f ms"
+                                 + " (%.2f Mtokens/s, %.2f MB/s)",
+                                 results.size(), tokens(), bytes(), nanos / 1e6,
+                                 tokens() / seconds / 1e6,
+                                 bytes() / seconds / 1e6);
+        }
+    }
+
+    private final ExecutorService executor;
+    private TokenCache cache;
+
+    /**
+     * @param executor runs one scanning task per file; the caller owns it
+     *                 and shuts it down
+     */
+    ScanDriver(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Makes scan() answer unchanged files from cache.
+     */
+    void useCache(TokenCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Scans every file in files concurrently.
+     * @return one Result per file, in the same order as files
+     */
+    Batch scan(List<Path> files) throws InterruptedException {
+        long start = System.nanoTime();
+        List<Future<Result>> pending = new ArrayList<>(files.size());
+        for (Path file : files)
+            pending.add(executor.submit(
+                () -> cache != null ? cache.scan(file) : scanFile(file)));
+        List<Result> results = new ArrayList<>(files.size());
+        for (Future<Result> f : pending) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException ex) {
+                // a file's own failures are in its Result, so this is
+                // the JVM running out of memory or stack
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        return new Batch(results, System.nanoTime() - start);
+    }
+
+    /**
+     * Scans a single file on the calling thread.
+     */
+    static Result scanFile(Path file) {
+        long start = System.nanoTime();
+        List<Symbol> tokens = new ArrayList<>();
+        Diagnostics diagnostics = new Diagnostics();
+        long bytes = 0;
+        try {
+            bytes = Files.size(file);
+            try (Yylex lexer = new Yylex(file)) {
+                lexer.useDiagnostics(diagnostics);
+                Symbol token;
+                do {
+                    token = lexer.next_token();
+                    tokens.add(token);
+                } while (token.sym != sym.EOF);
+            }
+        } catch (IOException | RuntimeException | Error ex) {
+            rethrowIfFatal(ex);
+            return new Result(file, Collections.<Symbol>emptyList(),
+                              diagnostics.messages(), ex, bytes,
+                              System.nanoTime() - start);
+        }
+        return new Result(file, tokens, diagnostics.messages(), null, bytes,
+                          System.nanoTime() - start);
+    }
+
+    /**
+     * Scans one file by cutting it into pieces of about chunkSize bytes
+     * and scanning the pieces concurrently.  Every moo token, comment and
+     * string literal ends at or before a newline, so a scanner started
+     * just after a newline is in the same state a whole-file scan would
+     * be; only line numbers need shifting, and each piece's first line
+     * is found by counting line ends in the pieces before it.
+     * @return the same tokens and messages as scanFile(file), with a
+     *         single EOF at the end
+     */
+    Result scanChunked(Path file, long chunkSize)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] bounds = chunkBounds(channel, size, chunkSize);
+            int n = bounds.length - 1;
+
+            List<Future<Long>> counted = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                long from = bounds[i], to = bounds[i + 1];
+                counted.add(executor.submit(() -> countLines(channel, from, to)));
+            }
+            int[] firstLine = new int[n];
+            int line = 1;
+            for (int i = 0; i < n; i++) {
+                firstLine[i] = line;
+                line += await(counted.get(i));
+            }
+
+            List<Future<Result>> scanned = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                long from = bounds[i], to = bounds[i + 1];
+                int first = firstLine[i];
+                scanned.add(executor.submit(
+                    () -> scanChunk(file, channel, from, to, first)));
+            }
+            List<Symbol> tokens = new ArrayList<>();
+            List<String> messages = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                Result r = await(scanned.get(i));
+                if (r.error != null)
+                    return new Result(file, Collections.<Symbol>emptyList(),
+                                      messages, r.error, size,
+                                      System.nanoTime() - start);
+                // drop every EOF but the last
+                tokens.addAll(i == n - 1 ? r.tokens
+                              : r.tokens.subList(0, r.tokens.size() - 1));
+                messages.addAll(r.messages);
+            }
+            return new Result(file, tokens, messages, null, size,
+                              System.nanoTime() - start);
+        }
+    }
+
+    // Scans bytes [from, to) of channel, numbering lines from first.
+    private static Result scanChunk(Path file, FileChannel channel,
+                                    long from, long to, int first) {
+        List<Symbol> tokens = new ArrayList<>();
+        Diagnostics diagnostics = new Diagnostics();
+        try {
+            Yylex lexer = new Yylex(channel, from, to);
+            lexer.startAtLine(first);
+            lexer.useDiagnostics(diagnostics);
+            Symbol token;
+            do {
+                token = lexer.next_token();
+                tokens.add(token);
+            } while (token.sym != sym.EOF);
+        } catch (IOException | RuntimeException | Error ex) {
+            rethrowIfFatal(ex);
+            return new Result(file, tokens, diagnostics.messages(), ex,
+                              to - from, 0);
+        }
+        return new Result(file, tokens, diagnostics.messages(), null,
+                          to - from, 0);
+    }
+
+    /**
+     * Lets through a failure that is not one file's fault, so that only
+     * the rest go in that file's Result.  Besides I/O errors, a file can
+     * break the scanner with an unchecked exception, e.g. one from a file
+     * system that cannot map files, or with the Error it throws for input
+     * no rule matches; running out of memory or stack ends the batch.
+     */
+    static void rethrowIfFatal(Throwable ex) {
+        if (ex instanceof VirtualMachineError)
+            throw (VirtualMachineError) ex;
+    }
+
+    /**
+     * @return offsets 0 = b[0] < b[1] < ... < b[n] = size such that each
+     *         b[i] in between directly follows a newline and the pieces
+     *         are about chunkSize bytes long
+     */
+    static long[] chunkBounds(FileChannel channel, long size, long chunkSize)
+            throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long pos = chunkSize;
+        while (pos < size) {
+            // look for the next newline at or after pos
+            long cut = -1;
+            while (cut < 0 && pos < size) {
+                buf.clear();
+                int got = channel.read(buf, pos);
+                if (got <= 0)
+                    break;
+                for (int i = 0; i < got; i++) {
+                    if (buf.get(i) == '\n') {
+                        cut = pos + i + 1;
+                        break;
+                    }
+                }
+                if (cut < 0)
+                    pos += got;
+            }
+            if (cut < 0 || cut >= size)
+                break;
+            bounds.add(cut);
+            pos = cut + chunkSize;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = bounds.get(i);
+        return result;
+    }
+
+    /**
+     * Counts the line ends in bytes [from, to) of channel the way the
+     * scanner does: \r, \n and \r\n each end one line.
+     */
+    static long countLines(FileChannel channel, long from, long to)
+            throws IOException {
+        long lines = 0;
+        boolean lastWasCr = false;
+        for (long pos = from; pos < to; pos += COUNT_WINDOW) {
+            long len = Math.min(to - pos, COUNT_WINDOW);
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            for (int i = 0; i < len; i++) {
+                byte b = buf.get(i);
+                if (b == '\n' && !lastWasCr)
+                    lines++;
+                lastWasCr = b == '\r';
+                if (lastWasCr)
+                    lines++;
+            }
+        }
+        return lines;
+    }
+
+    // How much of a file countLines maps at a time.
+    private static final long COUNT_WINDOW = 1 << 26;
+
+    private static <T> T await(Future<T> f) throws InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * @return the *.moo files under dir, sorted by path so that runs over
+     *         the same tree always list them in the same order
+     */
+    static List<Path> mooFiles(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry))
+                    files.addAll(mooFiles(entry));
+                else if (entry.getFileName().toString().endsWith(".moo"))
+                    files.add(entry);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    // How many of a file's messages main prints.
+    private static final int MESSAGES_PER_FILE = Yylex.DIAGNOSTICS_LIMIT;
+
+    // Size bound for the -cache directory.
+    private static final long CACHE_BYTES = 1L << 30;
+
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long chunkSize = 0;
+        Path cacheDir = null;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+                continue;
+            }
+            if (args[i].equals("-c") && i + 1 < args.length) {
+                chunkSize = Long.parseLong(args[++i]) << 20;
+                continue;
+            }
+            if (args[i].equals("-cache") && i + 1 < args.length) {
+                cacheDir = Paths.get(args[++i]);
+                continue;
+            }
+            Path p = Paths.get(args[i]);
+            if (Files.isDirectory(p))
+                files.addAll(mooFiles(p));
+            else
+                files.add(p);
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: java ScanDriver [-j threads] [-c chunkMB]"
+                               + " [-cache dir] (directory | file) ...");
+            System.exit(1);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Batch batch;
+        try {
+            ScanDriver driver = new ScanDriver(pool);
+            if (cacheDir != null)
+                driver.useCache(new TokenCache(cacheDir, CACHE_BYTES));
+            if (chunkSize > 0) {
+                long start = System.nanoTime();
+                List<Result> results = new ArrayList<>();
+                for (Path file : files)
+                    results.add(driver.scanChunked(file, chunkSize));
+                batch = new Batch(results, System.nanoTime() - start);
+            } else {
+                batch = driver.scan(files);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // one write per file, at most MESSAGES_PER_FILE messages each
+        boolean failed = false;
+        for (Result r : batch.results) {
+            if (r.error != null) {
+                System.err.println(r.file + ": " + (r.error instanceof IOException
+                                                    ? r.error.getMessage() : r.error));
+                failed = true;
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            int shown = Math.min(r.messages.size(), MESSAGES_PER_FILE);
+            for (String msg : r.messages.subList(0, shown))
+                sb.append(r.file).append(':').append(msg).append('\n');
+            if (shown < r.messages.size())
+                sb.append(r.file).append(": ").append(r.messages.size() - shown)
+                  .append(" more messages\n");
+            System.err.print(sb);
+            System.out.println(r.file + ": " + r.tokens.size() + " tokens");
+        }
+        System.out.println(batch.throughput() + " on " + threads + " threads");
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java_cup.runtime.*;  // defines Symbol
+
+/**
+ * TokenCache
+ *
+ * An on-disk cache of scan results, so that an unchanged file is answered
+ * without running the scanner.  An entry is keyed by a hash of the file's
+ * bytes together with a fingerprint of the scanner, so a rebuilt scanner
+ * never sees entries written by an older one.  Files are hashed and
+ * scanned as streams, so they may be of any size.
+ *
+ * Entries are TokenWriter streams holding the scanner's messages followed
+ * by the tokens.
+ *
+ * Several processes may share one cache directory.  Entries are written
+ * to a temporary file and renamed into place, so a reader sees a whole
+ * entry or none.  Eviction holds a lock on the directory's lock file and
+ * removes the least recently used entries (by modification time, which a
+ * hit refreshes) until the entries fit in the size bound.  It also removes
+ * temporary files left by writers that died before renaming them.  It runs
+ * on the first store, and after that only once the entries this cache has
+ * stored since would take the directory past the bound, so that a cold
+ * run does not list the directory once per file.
+ */
+class TokenCache {
+    private static final String SUFFIX = ".tok";
+
+    // A temporary file this much older than its last write belongs to a
+    // writer that is gone.
+    private static final long PART_MAX_AGE_MILLIS = 60 * 60 * 1000;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final byte[] fingerprint;
+    private int hits, misses;
+
+    // The bytes in the directory's entries as of the last eviction, plus
+    // those stored since; -1 until the first eviction has counted them.
+    private final AtomicLong storedBytes = new AtomicLong(-1);
+
+    /**
+     * @param dir directory to keep entries in; created if missing
+     * @param maxBytes the entries are trimmed to at most this many bytes
+     *                 once a new one takes them past it
+     */
+    TokenCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        fingerprint = scannerFingerprint();
+    }
+
+    /**
+     * Returns the tokens and messages for file, from the cache if it
+     * holds an entry for the file's current contents, otherwise by
+     * scanning the file and storing the result.
+     */
+    ScanDriver.Result scan(Path file) {
+        long start = System.nanoTime();
+        long size;
+        String key;
+        try {
+            size = Files.size(file);
+            key = key(file);
+        } catch (IOException ex) {
+            return new ScanDriver.Result(file, Collections.<Symbol>emptyList(),
+                                         new ArrayList<String>(), ex, 0,
+                                         System.nanoTime() - start);
+        }
+        Path entry = dir.resolve(key + SUFFIX);
+        List<Symbol> tokens = new ArrayList<>();
+        List<String> messages = new ArrayList<>();
+        if (load(entry, tokens, messages)) {
+            count(true);
+            return new ScanDriver.Result(file, tokens, messages, null,
+                                         size, System.nanoTime() - start);
+        }
+        count(false);
+        tokens.clear();
+        messages.clear();
+        // hash the file again as it is scanned, and store the result only
+        // if the file did not change after the key was taken
+        MessageDigest md = sha256();
+        md.update(fingerprint);
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), md);
+             Yylex lexer = new Yylex(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            Diagnostics diagnostics = new Diagnostics();
+            lexer.useDiagnostics(diagnostics);
+            Symbol token;
+            do {
+                token = lexer.next_token();
+                tokens.add(token);
+            } while (token.sym != sym.EOF);
+            messages.addAll(diagnostics.messages());
+        } catch (IOException | RuntimeException | Error ex) {
+            ScanDriver.rethrowIfFatal(ex);
+            return new ScanDriver.Result(file, Collections.<Symbol>emptyList(),
+                                         messages, ex, size,
+                                         System.nanoTime() - start);
+        }
+        if (hex(md.digest()).equals(key)) {
+            try {
+                store(entry, tokens, messages);
+            } catch (IOException ex) {
+                // a cache that cannot be written still answers the scan
+            }
+        }
+        return new ScanDriver.Result(file, tokens, messages, null,
+                                     size, System.nanoTime() - start);
+    }
+
+    private synchronized void count(boolean hit) {
+        if (hit)
+            hits++;
+        else
+            misses++;
+    }
+
+    synchronized int hits() {
+        return hits;
+    }
+
+    synchronized int misses() {
+        return misses;
+    }
+
+    // Returns the hex SHA-256 of the scanner fingerprint and the file.
+    private String key(Path file) throws IOException {
+        MessageDigest md = sha256();
+        md.update(fingerprint);
+        try (InputStream in = Files.newInputStream(file)) {
+            digest(md, in);
+        }
+        return hex(md.digest());
+    }
+
+    private static String hex(byte[] hash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    // Hashes everything besides the input that a cached result depends
+    // on: the scanner class, which holds its actions and usually its
+    // tables; the table file a %resource scanner loads instead; the
+    // classes that word its messages; and those that write and read
+    // entries.
+    private static byte[] scannerFingerprint() throws IOException {
+        MessageDigest md = sha256();
+        Class<?>[] owners = { Yylex.class, Yylex.class, Diagnostics.class,
+                              ErrMsg.class, TokenWriter.class, TokenReader.class };
+        String[] names = { "Yylex.class", "Yylex.tables", "Diagnostics.class",
+                           "ErrMsg.class", "TokenWriter.class", "TokenReader.class" };
+        for (int i = 0; i < names.length; i++) {
+            try (InputStream in = owners[i].getResourceAsStream(names[i])) {
+                if (in == null) {
+                    // only a %resource scanner has a table file
+                    if (names[i].endsWith(".tables"))
+                        continue;
+                    throw new IOException("cannot read " + names[i]);
+                }
+                md.update(names[i].getBytes(StandardCharsets.UTF_8));
+                digest(md, in);
+            }
+        }
+        return md.digest();
+    }
+
+    private static void digest(MessageDigest md, InputStream in)
+            throws IOException {
+        byte[] buf = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buf)) > 0)
+            md.update(buf, 0, n);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);  // every JDK has SHA-256
+        }
+    }
+
+    // Reads entry into tokens and messages, returning false if there is
+    // no usable entry.
+    private boolean load(Path entry, List<Symbol> tokens, List<String> messages) {
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            TokenReader in = new TokenReader(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            // renumber identifiers as a fresh scan would
+            IdTable ids = new IdTable();
+            int kind;
+            while ((kind = in.next()) != sym.EOF) {
+                if (kind == TokenWriter.MESSAGE) {
+                    messages.add(in.text());
+                } else if (kind == sym.ID) {
+                    int id = ids.intern(in.text());
+                    tokens.add(new Symbol(kind, new IdTokenVal(in.line(), in.column(),
+                                                               ids.name(id), id)));
+                } else {
+                    tokens.add(in.symbol());
+                }
+            }
+            tokens.add(in.symbol());
+        } catch (NoSuchFileException ex) {
+            return false;
+        } catch (IOException ex) {
+            // truncated or foreign file; treat as a miss and overwrite it
+            return false;
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ex) {
+            // evicted meanwhile; the tokens are already read
+        }
+        return true;
+    }
+
+    // Writes an entry under a temporary name and renames it into place.
+    private void store(Path entry, List<Symbol> tokens, List<String> messages)
+            throws IOException {
+        Path tmp = Files.createTempFile(dir, "tmp", ".part");
+        long size;
+        try {
+            try (TokenWriter out = new TokenWriter(Files.newOutputStream(tmp), false)) {
+                for (String msg : messages)
+                    out.message(msg);
+                for (Symbol token : tokens)
+                    out.write(token);
+            }
+            // load maps an entry as one buffer, which cannot pass 2 GB
+            size = Files.size(tmp);
+            if (size > Integer.MAX_VALUE)
+                return;
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        if (storedBytes.get() < 0 || storedBytes.addAndGet(size) > maxBytes)
+            evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the rest fit in
+     * maxBytes, and temporary files that their writers abandoned.  Holds
+     * the directory lock, so that concurrent evictions (in this process
+     * or others) do not both delete for the same excess.
+     */
+    void evict() throws IOException {
+        synchronized (TokenCache.class) {  // FileLock is per process
+            try (FileChannel lockFile = FileChannel.open(dir.resolve("lock"),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                lockFile.lock();  // released when lockFile is closed
+                long stale = System.currentTimeMillis() - PART_MAX_AGE_MILLIS;
+                try (DirectoryStream<Path> parts = Files.newDirectoryStream(dir, "tmp*.part")) {
+                    for (Path p : parts) {
+                        try {
+                            if (Files.getLastModifiedTime(p).toMillis() < stale)
+                                Files.delete(p);
+                        } catch (NoSuchFileException ex) {
+                            // renamed or deleted by its writer meanwhile
+                        }
+                    }
+                }
+                List<Path> entries = new ArrayList<>();
+                final Map<Path, Long> used = new HashMap<>();
+                long total = 0;
+                try (DirectoryStream<Path> all = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+                    for (Path p : all) {
+                        try {
+                            used.put(p, Files.getLastModifiedTime(p).toMillis());
+                            total += Files.size(p);
+                            entries.add(p);
+                        } catch (NoSuchFileException ex) {
+                            // deleted by another process meanwhile
+                        }
+                    }
+                }
+                storedBytes.set(total);
+                if (total <= maxBytes)
+                    return;
+                Collections.sort(entries, new Comparator<Path>() {
+                    public int compare(Path a, Path b) {
+                        return Long.compare(used.get(a), used.get(b));
+                    }
+                });
+                for (Path p : entries) {
+                    if (total <= maxBytes)
+                        break;
+                    try {
+                        long size = Files.size(p);
+                        Files.delete(p);
+                        total -= size;
+                    } catch (NoSuchFileException ex) {
+                        // already gone
+                    }
+                }
+                storedBytes.set(total);
+            }
+        }
+    }
+}
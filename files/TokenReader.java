@@ -0,0 +1,200 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java_cup.runtime.*;  // defines Symbol
+
+/**
+ * TokenReader
+ *
+ * Replays a token stream written by TokenWriter (see there for the
+ * format) straight out of a ByteBuffer, e.g. a mapped file.  Stepping
+ * through the records allocates nothing: fields are decoded into the
+ * reader, and the text of an ID or string literal is described by its
+ * place in the buffer and its index in the string table.  Only text()
+ * and symbol() build objects.
+ */
+class TokenReader {
+    private final ByteBuffer buf;
+    private final boolean offsets;
+
+    // string table: where each string's UTF-8 bytes lie in buf
+    private int[] stringStart = new int[64];
+    private int[] stringLength = new int[64];
+    private String[] stringCache = new String[64];
+    private int strings;
+
+    // the current record
+    private int kind = -1, line = 1, column = 1, offset = 0;
+    private int intValue, stringIndex;
+    private int messageStart, messageLength;
+
+    /**
+     * @param buf a whole stream; read from its position onwards without
+     *            moving it
+     */
+    TokenReader(ByteBuffer buf) throws IOException {
+        this.buf = buf.duplicate();
+        if (this.buf.remaining() < TokenWriter.MAGIC.length + 2)
+            throw new IOException("truncated token stream");
+        for (byte b : TokenWriter.MAGIC) {
+            if (this.buf.get() != b)
+                throw new IOException("not a token stream");
+        }
+        int version = this.buf.get();
+        if (version != TokenWriter.VERSION)
+            throw new IOException("unsupported token stream version " + version);
+        offsets = (this.buf.get() & TokenWriter.OFFSETS) != 0;
+    }
+
+    /**
+     * Moves to the next record.
+     * @return its kind: a sym constant, or TokenWriter.MESSAGE; sym.EOF
+     *         at the end of the stream, and for ever after
+     */
+    int next() throws IOException {
+        if (kind == sym.EOF)
+            return kind;
+        try {
+            kind = buf.get() & 0xff;
+            if (kind == sym.EOF)
+                return kind;
+            if (kind == TokenWriter.MESSAGE) {
+                messageLength = varint();
+                messageStart = buf.position();
+                buf.position(messageStart + messageLength);
+                return kind;
+            }
+            int dLine = zigzag();
+            int col = zigzag();
+            line += dLine;
+            if (dLine == 0) {
+                column += col;
+                offset += col;
+            } else {
+                column = col;
+                if (offsets)
+                    offset += zigzag();
+            }
+            if (kind == sym.INTLITERAL) {
+                intValue = varint();
+            } else if (kind == sym.ID || kind == sym.STRINGLITERAL) {
+                int ref = varint();
+                if (ref == 0) {
+                    int len = varint();
+                    addString(buf.position(), len);
+                    buf.position(buf.position() + len);
+                    stringIndex = strings - 1;
+                } else {
+                    // a corrupt varint can come back negative
+                    if (ref < 0 || ref - 1 >= strings)
+                        throw new IOException("bad string reference");
+                    stringIndex = ref - 1;
+                }
+            }
+            return kind;
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new IOException("truncated token stream");
+        }
+    }
+
+    int kind() { return kind; }
+    int line() { return line; }
+    int column() { return column; }
+
+    /**
+     * @return the character offset of the current token; meaningless if
+     *         the stream was written without offsets
+     */
+    int offset() { return offset; }
+
+    /**
+     * @return the value of the current INTLITERAL
+     */
+    int intValue() { return intValue; }
+
+    /**
+     * @return the string table index of the current ID or STRINGLITERAL;
+     *         equal texts have equal indexes
+     */
+    int stringIndex() { return stringIndex; }
+
+    /**
+     * @return where the UTF-8 bytes of the current ID, STRINGLITERAL or
+     *         MESSAGE lie in the buffer given to the constructor
+     */
+    int textStart() {
+        return kind == TokenWriter.MESSAGE ? messageStart
+                                           : stringStart[stringIndex];
+    }
+
+    int textLength() {
+        return kind == TokenWriter.MESSAGE ? messageLength
+                                           : stringLength[stringIndex];
+    }
+
+    /**
+     * @return the text of the current ID, STRINGLITERAL or MESSAGE,
+     *         decoded once per string table entry
+     */
+    String text() {
+        if (kind == TokenWriter.MESSAGE)
+            return decode(messageStart, messageLength);
+        if (stringCache[stringIndex] == null)
+            stringCache[stringIndex] = decode(stringStart[stringIndex],
+                                              stringLength[stringIndex]);
+        return stringCache[stringIndex];
+    }
+
+    /**
+     * @return the current token as Yylex.next_token would have returned
+     *         it; for an ID, the id is its string table index
+     */
+    Symbol symbol() {
+        switch (kind) {
+        case sym.EOF:
+            return new Symbol(sym.EOF);
+        case sym.ID:
+            return new Symbol(kind, new IdTokenVal(line, column, text(), stringIndex));
+        case sym.STRINGLITERAL:
+            return new Symbol(kind, new StrLitTokenVal(line, column, text()));
+        case sym.INTLITERAL:
+            return new Symbol(kind, new IntLitTokenVal(line, column, intValue));
+        default:
+            return new Symbol(kind, new TokenVal(line, column));
+        }
+    }
+
+    private String decode(int start, int length) {
+        ByteBuffer b = buf.duplicate();
+        b.position(start);
+        b.limit(start + length);
+        return StandardCharsets.UTF_8.decode(b).toString();
+    }
+
+    private void addString(int start, int length) {
+        if (strings == stringStart.length) {
+            stringStart = java.util.Arrays.copyOf(stringStart, strings * 2);
+            stringLength = java.util.Arrays.copyOf(stringLength, strings * 2);
+            stringCache = java.util.Arrays.copyOf(stringCache, strings * 2);
+        }
+        stringStart[strings] = start;
+        stringLength[strings] = length;
+        strings++;
+    }
+
+    private int zigzag() throws IOException {
+        int v = varint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private int varint() throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.get();
+            v |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return v;
+        }
+        throw new IOException("bad varint");
+    }
+}
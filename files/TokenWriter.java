@@ -0,0 +1,164 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java_cup.runtime.*;  // defines Symbol
+
+/**
+ * TokenWriter
+ *
+ * Writes a scan as a compact binary token stream, to be replayed by
+ * TokenReader without running the scanner again.
+ *
+ * Format, version 1.  A varint is an unsigned LEB128 number; a zigzag
+ * varint is a signed number mapped onto one (0, -1, 1, -2, ... become
+ * 0, 1, 2, 3, ...).
+ *
+ *   stream   := "MOOK" version:byte flags:byte record* eof
+ *   record   := kind:byte line:zigzag column:zigzag [offset:zigzag] value
+ *             | MESSAGE:byte length:varint utf8-bytes
+ *   eof      := EOF:byte
+ *
+ * line is the change from the previous token's line.  column is the
+ * change from the previous token's column if the line did not change,
+ * otherwise the column itself.  offset is present only if flags has
+ * OFFSETS set and the line changed, and is then the change from the
+ * previous token's offset; within a line, offsets advance with columns,
+ * so they are not written.
+ *
+ * value depends on kind: an INTLITERAL has its value as a varint; an ID
+ * or STRINGLITERAL has a string reference; other kinds have none.  A
+ * string reference is 0 followed by length:varint utf8-bytes the first
+ * time a string occurs, which gives it the next index in the string table
+ * (starting at 0), and index + 1 every time after that.  MESSAGE records
+ * carry the scanner's error and warning messages in the order they were
+ * made.  sym kinds all fit in a byte; MESSAGE is 255.
+ */
+class TokenWriter implements Closeable {
+    static final byte[] MAGIC = { 'M', 'O', 'O', 'K' };
+    static final int VERSION = 1;
+    static final int OFFSETS = 1;   // flag: records carry offsets
+    static final int MESSAGE = 255;
+
+    private final OutputStream out;
+    private final boolean offsets;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private int prevLine = 1, prevColumn = 1, prevOffset = 0;
+    private boolean ended;
+
+    /**
+     * @param out where the stream goes; closed by close()
+     * @param offsets whether records carry character offsets; token
+     *                Symbols have none, so write(Symbol) needs false
+     */
+    TokenWriter(OutputStream out, boolean offsets) throws IOException {
+        this.out = out instanceof BufferedOutputStream
+                   || out instanceof ByteArrayOutputStream
+                   ? out : new BufferedOutputStream(out);
+        this.offsets = offsets;
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+        this.out.write(offsets ? OFFSETS : 0);
+    }
+
+    /**
+     * Writes a token without a value.
+     */
+    void token(int kind, int line, int column, int offset) throws IOException {
+        if (kind == sym.EOF) {
+            end();
+            return;
+        }
+        out.write(kind);
+        zigzag(line - prevLine);
+        zigzag(line == prevLine ? column - prevColumn : column);
+        if (offsets && line != prevLine)
+            zigzag(offset - prevOffset);
+        prevLine = line;
+        prevColumn = column;
+        prevOffset = offset;
+    }
+
+    void intLiteral(int line, int column, int offset, int value)
+            throws IOException {
+        token(sym.INTLITERAL, line, column, offset);
+        varint(value);
+    }
+
+    /**
+     * Writes an ID or STRINGLITERAL token and its text.
+     */
+    void text(int kind, int line, int column, int offset, CharSequence text)
+            throws IOException {
+        token(kind, line, column, offset);
+        String s = text.toString();
+        Integer index = strings.get(s);
+        if (index != null) {
+            varint(index + 1);
+            return;
+        }
+        strings.put(s, strings.size());
+        varint(0);
+        bytes(s);
+    }
+
+    /**
+     * Writes one of the scanner's error or warning messages.
+     */
+    void message(String msg) throws IOException {
+        out.write(MESSAGE);
+        bytes(msg);
+    }
+
+    /**
+     * Writes a token as returned by Yylex.next_token, with offset 0.
+     */
+    void write(Symbol token) throws IOException {
+        if (token.sym == sym.EOF) {
+            end();
+            return;
+        }
+        TokenVal t = (TokenVal) token.value;
+        if (t instanceof IdTokenVal)
+            text(sym.ID, t.linenum, t.charnum, 0, ((IdTokenVal) t).idVal);
+        else if (t instanceof StrLitTokenVal)
+            text(sym.STRINGLITERAL, t.linenum, t.charnum, 0,
+                 ((StrLitTokenVal) t).strVal);
+        else if (t instanceof IntLitTokenVal)
+            intLiteral(t.linenum, t.charnum, 0, ((IntLitTokenVal) t).intVal);
+        else
+            token(token.sym, t.linenum, t.charnum, 0);
+    }
+
+    // Writes the EOF record; nothing may follow it.
+    private void end() throws IOException {
+        if (!ended)
+            out.write(sym.EOF);
+        ended = true;
+    }
+
+    /**
+     * Ends the stream if it has not been ended, and closes the output.
+     */
+    public void close() throws IOException {
+        end();
+        out.close();
+    }
+
+    private void bytes(String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        varint(b.length);
+        out.write(b);
+    }
+
+    private void zigzag(int v) throws IOException {
+        varint((v << 1) ^ (v >> 31));
+    }
+
+    private void varint(int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+}
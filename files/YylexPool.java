@@ -0,0 +1,67 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * YylexPool
+ *
+ * Per-thread pools of idle scanners, for callers that scan many small
+ * inputs.  A new Yylex allocates its tables and buffer; a pooled one is
+ * only reset, which keeps both, so scanning a short snippet costs about
+ * as much as the scan itself.
+ *
+ * Usage:
+ *     Yylex lexer = YylexPool.acquire(snippet);
+ *     try {
+ *         ... lexer.next_token() ...
+ *     } finally {
+ *         YylexPool.release(lexer);
+ *     }
+ *
+ * A scanner must not be used after it is released.  Each thread has its
+ * own pool, so no locking is needed; a scanner released on another thread
+ * than it was acquired on just joins that thread's pool.
+ */
+class YylexPool {
+    // Idle scanners kept per thread; more than this are left to the GC.
+    static final int MAX_IDLE = 4;
+
+    private static final ThreadLocal<ArrayDeque<Yylex>> IDLE =
+        new ThreadLocal<ArrayDeque<Yylex>>() {
+            protected ArrayDeque<Yylex> initialValue() {
+                return new ArrayDeque<>(MAX_IDLE);
+            }
+        };
+
+    private YylexPool() {}
+
+    /**
+     * @return a scanner over input, in the same state as new Yylex(input)
+     */
+    static Yylex acquire(CharSequence input) throws IOException {
+        Yylex lexer = IDLE.get().pollFirst();
+        if (lexer == null)
+            return new Yylex(input);
+        lexer.reset(input);
+        return lexer;
+    }
+
+    /**
+     * @return a scanner over input, in the same state as new Yylex(input)
+     */
+    static Yylex acquire(Reader input) throws IOException {
+        Yylex lexer = IDLE.get().pollFirst();
+        if (lexer == null)
+            return new Yylex(input);
+        lexer.reset(input);
+        return lexer;
+    }
+
+    /**
+     * Returns lexer to the calling thread's pool.
+     */
+    static void release(Yylex lexer) {
+        ArrayDeque<Yylex> idle = IDLE.get();
+        if (idle.size() < MAX_IDLE)
+            idle.addFirst(lexer);
+    }
+}